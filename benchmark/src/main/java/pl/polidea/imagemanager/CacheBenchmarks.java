@@ -0,0 +1,130 @@
+package pl.polidea.imagemanager;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Memory cache benchmarks. Views look their images up on each drawn frame, most lookups hit the cache, lookups of
+ * images which failed to load miss it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CacheBenchmarks
+{
+    private static final int COUNT = 1024;
+
+    /**
+     * Position of each benchmark thread in looked up images.
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int i;
+
+        int next()
+        {
+            i = (i + 1) & (COUNT - 1);
+            return i;
+        }
+    }
+
+    private ImageKey[] loaded;
+    private ImageKey[] failed;
+
+    private static ImageKey[] createKeys(final int from, final int count)
+    {
+        final ImageManagerRequest[] reqs = KeyBenchmarks.createRequests(from + count);
+        final ImageKey[] keys = new ImageKey[count];
+        for (int i = 0; i < count; ++i)
+        {
+            keys[i] = ImageKey.of(reqs[from + i]);
+        }
+        return keys;
+    }
+
+    @Setup
+    public void setUp()
+    {
+        ImageManager.init(new Application());
+
+        loaded = createKeys(0, COUNT);
+        failed = createKeys(COUNT, COUNT);
+        for (final ImageKey key : loaded)
+        {
+            final Bitmap bmp = Bitmap.createBitmap(BitmapFactory.WIDTH, BitmapFactory.HEIGHT,
+                    Bitmap.Config.ARGB_8888);
+            ImageManager.loaded.put(key, bmp, true, false);
+        }
+        for (final ImageKey key : failed)
+        {
+            ImageManager.failedSources.add(TileKey.sourceOf(key.req), 3600000);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ImageManager.shutDown();
+    }
+
+    @Benchmark
+    public Bitmap getImageHit(final Cursor cursor)
+    {
+        return ImageManager.getImage(loaded[cursor.next()], null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Bitmap getImageHit4Threads(final Cursor cursor)
+    {
+        return ImageManager.getImage(loaded[cursor.next()], null);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Bitmap getImageHit16Threads(final Cursor cursor)
+    {
+        return ImageManager.getImage(loaded[cursor.next()], null);
+    }
+
+    @Benchmark
+    public Bitmap getImageMissOfFailedImage(final Cursor cursor)
+    {
+        return ImageManager.getImage(failed[cursor.next()], null);
+    }
+
+    @Benchmark
+    public Bitmap acquireImageAndRelease(final Cursor cursor)
+    {
+        final ImageHandle handle = ImageManager.acquireImage(loaded[cursor.next()], null);
+        final Bitmap bmp = handle.getBitmap();
+        handle.release();
+        return bmp;
+    }
+
+    @Benchmark
+    public Object valuesOfLoadedSource(final Cursor cursor)
+    {
+        return ImageManager.loaded.valuesOf(TileKey.sourceOf(loaded[cursor.next()].req));
+    }
+}
@@ -0,0 +1,141 @@
+package pl.polidea.imagemanager;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.net.Uri;
+
+/**
+ * Image request and image key benchmarks. Every image lookup hashes and compares its key, so these are paid on each
+ * drawn frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KeyBenchmarks
+{
+    static final int COUNT = 1024;
+
+    private ImageManagerRequest[] reqs;
+    private ImageManagerRequest[] copies;
+    private ImageKey[] keys;
+    private ImageKey[] keyCopies;
+    private int i;
+
+    /**
+     * Create image requests of all source types.
+     * 
+     * @param count
+     *            number of requests.
+     * @return image requests.
+     */
+    static ImageManagerRequest[] createRequests(final int count)
+    {
+        final ImageManagerRequest[] reqs = new ImageManagerRequest[count];
+        for (int i = 0; i < count; ++i)
+        {
+            switch (i % 3)
+            {
+            case 0:
+                reqs[i] = new ImageManagerRequest("/sdcard/DCIM/Camera/IMG_" + i + ".jpg");
+                break;
+            case 1:
+                reqs[i] = new ImageManagerRequest(i);
+                break;
+            default:
+                reqs[i] = new ImageManagerRequest(Uri.parse("http://images.example.com/photos/" + i + ".jpg"));
+                break;
+            }
+            reqs[i].subsample = 1 << (i % 4);
+        }
+        return reqs;
+    }
+
+    private static ImageKey[] createKeys(final ImageManagerRequest[] reqs)
+    {
+        final ImageKey[] keys = new ImageKey[reqs.length];
+        for (int i = 0; i < reqs.length; ++i)
+        {
+            keys[i] = ImageKey.of(reqs[i]);
+        }
+        return keys;
+    }
+
+    @Setup
+    public void setUp()
+    {
+        reqs = createRequests(COUNT);
+        copies = new ImageManagerRequest[COUNT];
+        for (int i = 0; i < COUNT; ++i)
+        {
+            copies[i] = new ImageManagerRequest(reqs[i]);
+        }
+        keys = createKeys(reqs);
+        keyCopies = createKeys(copies);
+    }
+
+    private int next()
+    {
+        i = (i + 1) & (COUNT - 1);
+        return i;
+    }
+
+    @Benchmark
+    public int requestHashCode()
+    {
+        return reqs[next()].hashCode();
+    }
+
+    @Benchmark
+    public boolean requestEqualsEqual()
+    {
+        final int n = next();
+        return reqs[n].equals(copies[n]);
+    }
+
+    @Benchmark
+    public boolean requestEqualsDifferent()
+    {
+        final int n = next();
+        return reqs[n].equals(copies[(n + 3) & (COUNT - 1)]);
+    }
+
+    @Benchmark
+    public ImageKey keyOf()
+    {
+        return ImageKey.of(reqs[next()]);
+    }
+
+    @Benchmark
+    public int keyHashCode()
+    {
+        return keys[next()].hashCode();
+    }
+
+    @Benchmark
+    public boolean keyEqualsEqual()
+    {
+        final int n = next();
+        return keys[n].equals(keyCopies[n]);
+    }
+
+    @Benchmark
+    public boolean keyEqualsDifferent()
+    {
+        final int n = next();
+        return keys[n].equals(keyCopies[(n + 3) & (COUNT - 1)]);
+    }
+}
@@ -0,0 +1,124 @@
+package pl.polidea.imagemanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import pl.polidea.imagemanager.ImageManager.OnImageLoadedListener;
+
+/**
+ * Loading throughput benchmarks. Images are loaded by given number of loading threads, while the same number of
+ * threads requests them. Decoding takes no time, so queuing, in-flight bookkeeping and caching are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LoadBenchmarks implements OnImageLoadedListener
+{
+    private static final int LOADS = 20000;
+
+    @Param({ "1", "2", "4", "8", "16", "32", "64" })
+    public int threads;
+
+    private ImageKey[] keys;
+    private ExecutorService requesters;
+    private volatile CountDownLatch loaded;
+
+    @Setup
+    public void setUp()
+    {
+        // loaded images fit in memory cache, so eviction doesn't dominate loading time
+        final ImageManagerConfiguration config = QueueBenchmarks.createConfiguration();
+        config.loaderThreads = threads;
+        config.memoryCacheSize = 2L * LOADS * BitmapFactory.WIDTH * BitmapFactory.HEIGHT * 4;
+        ImageManager.init(new Application(), config);
+
+        keys = QueueBenchmarks.createKeys(LOADS);
+        requesters = Executors.newFixedThreadPool(threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation()
+    {
+        loaded = new CountDownLatch(LOADS);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation()
+    {
+        // next invocation loads images again
+        ImageManager.cleanUp();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        requesters.shutdown();
+        ImageManager.shutDown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOADS)
+    public long getImageAndLoad() throws InterruptedException, ExecutionException
+    {
+        final List<Future<Long>> requested = new ArrayList<Future<Long>>(threads);
+        for (int t = 0; t < threads; ++t)
+        {
+            final int thread = t;
+            requested.add(requesters.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call()
+                {
+                    long sum = 0;
+                    for (int i = thread; i < LOADS; i += threads)
+                    {
+                        sum += ImageManager.getImage(keys[i], LoadBenchmarks.this) == null ? 1 : 0;
+                    }
+                    return sum;
+                }
+            }));
+        }
+
+        long sum = 0;
+        for (final Future<Long> f : requested)
+        {
+            sum += f.get();
+        }
+        loaded.await();
+        return sum;
+    }
+
+    @Override
+    public void onImageLoaded(final ImageManagerRequest req, final Bitmap bmp)
+    {
+        loaded.countDown();
+    }
+}
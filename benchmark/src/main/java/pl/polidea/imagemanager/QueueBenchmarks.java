@@ -0,0 +1,109 @@
+package pl.polidea.imagemanager;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+
+/**
+ * Loading queue lookup benchmarks. Images requested again while queued are looked up in pending images and moved to
+ * front of the queue. Loading tasks are dropped, so queued images stay queued.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QueueBenchmarks
+{
+    private static final int QUEUED = 100000;
+
+    private ImageKey[] queued;
+    private int i;
+
+    /**
+     * Create keys of images from resources, without previews.
+     * 
+     * @param count
+     *            number of keys.
+     * @return image keys.
+     */
+    static ImageKey[] createKeys(final int count)
+    {
+        final ImageKey[] keys = new ImageKey[count];
+        for (int i = 0; i < count; ++i)
+        {
+            final ImageManagerRequest req = new ImageManagerRequest(i);
+            req.preview = false;
+            keys[i] = ImageKey.of(req);
+        }
+        return keys;
+    }
+
+    /**
+     * Create configuration without disk cache and without remembering failed images.
+     * 
+     * @return image manager configuration.
+     */
+    static ImageManagerConfiguration createConfiguration()
+    {
+        final ImageManagerConfiguration config = new ImageManagerConfiguration();
+        config.diskCacheSize = -1;
+        config.failedImageTimeout = 0;
+        return config;
+    }
+
+    @Setup
+    public void setUp()
+    {
+        final ImageManagerConfiguration config = createConfiguration();
+        config.loaderExecutor = new Executor()
+        {
+            @Override
+            public void execute(final Runnable command)
+            {
+                // dropped
+            }
+        };
+        ImageManager.init(new Application(), config);
+
+        queued = createKeys(QUEUED);
+        for (final ImageKey key : queued)
+        {
+            ImageManager.getImage(key, null);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ImageManager.shutDown();
+    }
+
+    @Benchmark
+    public Bitmap getImageMostRecentPending()
+    {
+        return ImageManager.getImage(queued[0], null);
+    }
+
+    @Benchmark
+    public Bitmap getImageRequeuePending()
+    {
+        i = i + 1 < QUEUED ? i + 1 : 0;
+        return ImageManager.getImage(queued[i], null);
+    }
+}
@@ -0,0 +1,128 @@
+package pl.polidea.imagemanager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import pl.polidea.imagemanager.ImageManager.OnImageLoadedListener;
+
+/**
+ * Time to visible images after scrolling. List is flung past given number of rows, each bound row requests its image,
+ * and stops with last rows visible. Benchmark measures time from visible rows drawing their images until all of them
+ * are loaded, while images of rows flung past are still queued. Decoding takes a millisecond, so images queued ahead
+ * of visible ones delay them. Rows scrolled out of screen cancel their images, as detached views do, or not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ScrollBenchmarks implements OnImageLoadedListener
+{
+    private static final int VISIBLE = 10;
+    private static final int LOADER_THREADS = 2;
+    private static final long DECODE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Param({ "100", "1000" })
+    public int rows;
+
+    @Param({ "false", "true" })
+    public boolean cancelOffscreen;
+
+    private ImageKey[] keys;
+    private AtomicIntegerArray loaded;
+    private volatile CountDownLatch visibleLoaded;
+
+    @Setup
+    public void setUp()
+    {
+        final ImageManagerConfiguration config = QueueBenchmarks.createConfiguration();
+        config.loaderThreads = LOADER_THREADS;
+        config.memoryCacheSize = 2L * rows * BitmapFactory.WIDTH * BitmapFactory.HEIGHT * 4;
+        ImageManager.init(new Application(), config);
+        BitmapFactory.decodeNanos = DECODE_NANOS;
+
+        keys = QueueBenchmarks.createKeys(rows);
+    }
+
+    @Setup(Level.Invocation)
+    public void fling()
+    {
+        loaded = new AtomicIntegerArray(rows);
+        visibleLoaded = new CountDownLatch(VISIBLE);
+
+        // rows flung past are bound one after another, rows scrolled out of screen are detached
+        for (int i = 0; i < rows; ++i)
+        {
+            ImageManager.getImage(keys[i], this);
+            if (cancelOffscreen && i >= VISIBLE)
+            {
+                ImageManager.cancel(keys[i - VISIBLE], this);
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation()
+    {
+        // stop loading rows flung past, next invocation loads images again
+        for (final ImageKey key : keys)
+        {
+            ImageManager.cancel(key, this);
+        }
+        ImageManager.cleanUp();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        BitmapFactory.decodeNanos = 0;
+        ImageManager.shutDown();
+    }
+
+    @Benchmark
+    public void timeToVisibleImages() throws InterruptedException
+    {
+        // visible rows draw their images
+        for (int i = rows - VISIBLE; i < rows; ++i)
+        {
+            if (ImageManager.getImage(keys[i], this) != null)
+            {
+                setLoaded(i);
+            }
+        }
+        visibleLoaded.await();
+    }
+
+    private void setLoaded(final int row)
+    {
+        if (loaded.compareAndSet(row, 0, 1) && row >= rows - VISIBLE)
+        {
+            visibleLoaded.countDown();
+        }
+    }
+
+    @Override
+    public void onImageLoaded(final ImageManagerRequest req, final Bitmap bmp)
+    {
+        setLoaded(req.resId);
+    }
+}
@@ -0,0 +1,136 @@
+package pl.polidea.imagemanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.app.Application;
+import android.net.Uri;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Disk caches tests against local HTTP server. Images from URI are fetched once and then read from disk cache.
+ */
+public class DiskCachesTest
+{
+    private static final byte[] DATA = "image data".getBytes();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+    private String url;
+    private Metrics metrics;
+    private DiskCaches caches;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException
+            {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(200, DATA.length);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(DATA);
+                os.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/image.jpg";
+
+        metrics = new Metrics();
+        caches = createCaches(metrics);
+    }
+
+    @After
+    public void tearDown()
+    {
+        caches.close();
+        server.stop(0);
+    }
+
+    private DiskCaches createCaches(final Metrics m)
+    {
+        final ImageManagerConfiguration config = new ImageManagerConfiguration();
+        config.diskCacheDirectory = folder.getRoot();
+        config.fetchRetries = 0;
+        final DiskCaches c = new DiskCaches(m);
+        c.configure(new Application(), config);
+        return c;
+    }
+
+    @Test
+    public void fetchesOnceThenReadsDiskCache() throws IOException
+    {
+        final ImageManagerRequest req = new ImageManagerRequest(Uri.parse(url));
+        assertFalse(caches.isOnDisk(req));
+
+        assertArrayEquals(DATA, caches.fetch(req, null, 0));
+        assertTrue(caches.isOnDisk(req));
+        assertArrayEquals(DATA, caches.fetch(req, null, 0));
+
+        assertEquals(1, requests.get());
+        assertEquals(1, metrics.fetches.get());
+        assertEquals(1, metrics.diskCacheMisses.get());
+        assertEquals(1, metrics.diskCacheHits.get());
+    }
+
+    @Test
+    public void readsDiskCacheOfEquivalentUri() throws IOException
+    {
+        final int port = server.getAddress().getPort();
+        caches.fetch(new ImageManagerRequest(Uri.parse(url)), null, 0);
+
+        final ImageManagerRequest req = new ImageManagerRequest(Uri.parse("HTTP://127.0.0.1:" + port
+                + "/photos/../image.jpg#fragment"));
+        assertArrayEquals(DATA, caches.fetch(req, null, 0));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void keepsDiskCacheAfterReopening() throws IOException
+    {
+        caches.fetch(new ImageManagerRequest(Uri.parse(url)), null, 0);
+        caches.close();
+
+        final Metrics reopened = new Metrics();
+        caches = createCaches(reopened);
+        assertArrayEquals(DATA, caches.fetch(new ImageManagerRequest(Uri.parse(url)), null, 0));
+        assertEquals(1, requests.get());
+        assertEquals(1, reopened.diskCacheHits.get());
+    }
+
+    @Test
+    public void fetchesEveryTimeWithDiskCacheDisabled() throws IOException
+    {
+        final ImageManagerConfiguration config = new ImageManagerConfiguration();
+        config.diskCacheSize = -1;
+        caches.configure(new Application(), config);
+
+        final ImageManagerRequest req = new ImageManagerRequest(Uri.parse(url));
+        caches.fetch(req, null, 0);
+        caches.fetch(req, null, 0);
+        assertEquals(2, requests.get());
+        assertEquals(0, metrics.diskCacheHits.get());
+    }
+}
@@ -0,0 +1,358 @@
+package pl.polidea.imagemanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP fetcher tests against local HTTP server.
+ */
+public class HttpFetcherTest
+{
+    private static final byte[] DATA = "image data".getBytes();
+    private static final int TIMEOUT = 200;
+
+    /**
+     * Handler responding with given status codes in turn, last one is repeated, with data for successful responses.
+     * Requests are counted and can be held until released.
+     */
+    private static final class Responses implements HttpHandler
+    {
+        private final int[] codes;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile CountDownLatch release = new CountDownLatch(0);
+        private volatile CountDownLatch received = new CountDownLatch(0);
+
+        Responses(final int... codes)
+        {
+            this.codes = codes;
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException
+        {
+            final int n = requests.getAndIncrement();
+            received.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            final int code = codes[Math.min(n, codes.length - 1)];
+            final byte[] body = code == 200 ? DATA : ("error " + code).getBytes();
+            exchange.sendResponseHeaders(code, body.length);
+            final OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+    }
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private String url;
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/image.jpg";
+    }
+
+    @After
+    public void tearDown() throws InterruptedException
+    {
+        server.stop(0);
+        executor.shutdownNow();
+        for (final Thread thread : threads)
+        {
+            thread.join(5000);
+        }
+    }
+
+    private Responses respond(final int... codes)
+    {
+        final Responses responses = new Responses(codes);
+        server.createContext("/", responses);
+        return responses;
+    }
+
+    private static FutureTask<Void> createTask()
+    {
+        return new FutureTask<Void>(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void fetchesData() throws IOException
+    {
+        final Responses responses = respond(200);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 2, 1);
+
+        assertArrayEquals(DATA, fetcher.fetch(url, null, 0));
+        assertEquals(1, responses.requests.get());
+    }
+
+    @Test
+    public void retriesServerErrors() throws IOException
+    {
+        final Responses responses = respond(500, 503, 200);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 2, 1);
+
+        assertArrayEquals(DATA, fetcher.fetch(url, null, 0));
+        assertEquals(3, responses.requests.get());
+    }
+
+    @Test
+    public void retriesThrottling() throws IOException
+    {
+        final Responses responses = respond(429, 200);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 2, 1);
+
+        assertArrayEquals(DATA, fetcher.fetch(url, null, 0));
+        assertEquals(2, responses.requests.get());
+    }
+
+    @Test
+    public void doesntRetryClientErrors()
+    {
+        final Responses responses = respond(404, 200);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 2, 1);
+
+        try
+        {
+            fetcher.fetch(url, null, 0);
+            fail("client error fetched");
+        }
+        catch (final IOException e)
+        {
+            assertFalse(e instanceof HttpFetcher.RetryException);
+        }
+        assertEquals(1, responses.requests.get());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries()
+    {
+        final Responses responses = respond(500);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 2, 1);
+
+        try
+        {
+            fetcher.fetch(url, null, 0);
+            fail("server error fetched");
+        }
+        catch (final IOException e)
+        {
+            assertFalse(e instanceof HttpFetcher.RetryException);
+        }
+        assertEquals(3, responses.requests.get());
+    }
+
+    @Test
+    public void defersRetryOfTask() throws IOException
+    {
+        final Responses responses = respond(500, 500, 500, 200);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 2, 100);
+        final FutureTask<Void> task = createTask();
+
+        // each retry is left to task, with doubled delay
+        for (int attempt = 0; attempt < 2; ++attempt)
+        {
+            final long t = System.nanoTime();
+            try
+            {
+                fetcher.fetch(url, task, attempt);
+                fail("server error fetched");
+            }
+            catch (final HttpFetcher.RetryException e)
+            {
+                assertEquals(attempt + 1, e.attempt);
+                assertEquals(100 << attempt, e.delay);
+            }
+            assertTrue(System.nanoTime() - t < TimeUnit.MILLISECONDS.toNanos(100));
+        }
+
+        // last retry fails
+        try
+        {
+            fetcher.fetch(url, task, 2);
+            fail("server error fetched");
+        }
+        catch (final IOException e)
+        {
+            assertFalse(e instanceof HttpFetcher.RetryException);
+        }
+        assertEquals(3, responses.requests.get());
+    }
+
+    @Test
+    public void doesntFetchForCancelledTask()
+    {
+        final Responses responses = respond(200);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 2, 1);
+        final FutureTask<Void> task = createTask();
+        task.cancel(false);
+
+        try
+        {
+            fetcher.fetch(url, task, 0);
+            fail("fetched for cancelled task");
+        }
+        catch (final IOException e)
+        {
+            assertTrue(e instanceof InterruptedIOException);
+        }
+        assertEquals(0, responses.requests.get());
+    }
+
+    @Test
+    public void timesOutReading()
+    {
+        final Responses responses = respond(200);
+        responses.release = new CountDownLatch(1);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 0, 1);
+
+        final long t = System.nanoTime();
+        try
+        {
+            fetcher.fetch(url, null, 0);
+            fail("fetched held response");
+        }
+        catch (final IOException e)
+        {
+            assertTrue(e instanceof SocketTimeoutException);
+        }
+        finally
+        {
+            responses.release.countDown();
+        }
+        assertTrue(System.nanoTime() - t < TimeUnit.MILLISECONDS.toNanos(10 * TIMEOUT));
+    }
+
+    @Test
+    public void timesOutConnecting() throws IOException
+    {
+        // server socket with full backlog, which is never accepted
+        final ServerSocket socket = new ServerSocket(0, 1);
+        final List<Socket> pending = new ArrayList<Socket>();
+        try
+        {
+            for (int i = 0; i < 8; ++i)
+            {
+                final Socket s = new Socket();
+                try
+                {
+                    s.connect(new InetSocketAddress("127.0.0.1", socket.getLocalPort()), TIMEOUT);
+                }
+                catch (final SocketTimeoutException e)
+                {
+                    s.close();
+                    break;
+                }
+                pending.add(s);
+            }
+
+            final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, TIMEOUT, 2, 0, 1);
+            final long t = System.nanoTime();
+            try
+            {
+                fetcher.fetch("http://127.0.0.1:" + socket.getLocalPort() + "/image.jpg", null, 0);
+                fail("fetched from full server");
+            }
+            catch (final IOException e)
+            {
+                assertTrue(e instanceof SocketTimeoutException);
+            }
+            assertTrue(System.nanoTime() - t < TimeUnit.MILLISECONDS.toNanos(10 * TIMEOUT));
+        }
+        finally
+        {
+            for (final Socket s : pending)
+            {
+                s.close();
+            }
+            socket.close();
+        }
+    }
+
+    @Test
+    public void limitsConnectionsPerHost() throws Exception
+    {
+        final Responses responses = respond(200);
+        responses.release = new CountDownLatch(1);
+        responses.received = new CountDownLatch(1);
+        final HttpFetcher fetcher = new HttpFetcher(TIMEOUT, 10000, 1, 0, 1);
+
+        // only connection to host held by fetch without task
+        final FutureTask<byte[]> held = new FutureTask<byte[]>(new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call() throws IOException
+            {
+                return fetcher.fetch(url, null, 0);
+            }
+        });
+        final Thread thread = new Thread(held);
+        threads.add(thread);
+        thread.start();
+        assertTrue(responses.received.await(5, TimeUnit.SECONDS));
+
+        try
+        {
+            fetcher.fetch(url, createTask(), 0);
+            fail("fetched from busy host");
+        }
+        catch (final HttpFetcher.HostBusyException e)
+        {
+            // expected
+        }
+        assertEquals(1, responses.requests.get());
+
+        // connection free again
+        responses.release.countDown();
+        assertArrayEquals(DATA, held.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(DATA, fetcher.fetch(url, createTask(), 0));
+        assertEquals(2, responses.requests.get());
+    }
+}
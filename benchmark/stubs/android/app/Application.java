@@ -0,0 +1,12 @@
+package android.app;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+
+public class Application extends Context
+{
+    public void registerComponentCallbacks(final ComponentCallbacks callback)
+    {
+        // nothing
+    }
+}
@@ -0,0 +1,28 @@
+package android.content;
+
+import java.io.File;
+
+import android.app.ActivityManager;
+import android.content.res.Resources;
+
+public class Context
+{
+    public static final String ACTIVITY_SERVICE = "activity";
+
+    private final Resources resources = new Resources();
+
+    public Object getSystemService(final String name)
+    {
+        return ACTIVITY_SERVICE.equals(name) ? new ActivityManager() : null;
+    }
+
+    public File getCacheDir()
+    {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public Resources getResources()
+    {
+        return resources;
+    }
+}
@@ -0,0 +1,98 @@
+package android.graphics;
+
+import java.io.OutputStream;
+
+/**
+ * Bitmap without pixels. Only dimensions and configuration are kept, so cache and pool sizes are counted as on device.
+ */
+public final class Bitmap
+{
+    public enum Config
+    {
+        ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+    }
+
+    public enum CompressFormat
+    {
+        JPEG, PNG
+    }
+
+    private final int width;
+    private final int height;
+    private final Config config;
+    private final boolean mutable;
+    private volatile boolean recycled;
+
+    private Bitmap(final int width, final int height, final Config config, final boolean mutable)
+    {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.mutable = mutable;
+    }
+
+    public static Bitmap createBitmap(final int width, final int height, final Config config)
+    {
+        return new Bitmap(width, height, config, true);
+    }
+
+    public static Bitmap createScaledBitmap(final Bitmap src, final int width, final int height, final boolean filter)
+    {
+        return new Bitmap(width, height, src.config, true);
+    }
+
+    public Bitmap copy(final Config config, final boolean mutable)
+    {
+        return new Bitmap(width, height, config, mutable);
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getRowBytes()
+    {
+        return width * (config == Config.ARGB_8888 ? 4 : config == Config.ALPHA_8 ? 1 : 2);
+    }
+
+    public int getByteCount()
+    {
+        return getRowBytes() * height;
+    }
+
+    public Config getConfig()
+    {
+        return config;
+    }
+
+    public boolean isMutable()
+    {
+        return mutable;
+    }
+
+    public boolean hasAlpha()
+    {
+        return config != Config.RGB_565;
+    }
+
+    public boolean isRecycled()
+    {
+        return recycled;
+    }
+
+    public void recycle()
+    {
+        recycled = true;
+    }
+
+    public boolean compress(final CompressFormat format, final int quality, final OutputStream stream)
+    {
+        return true;
+    }
+}
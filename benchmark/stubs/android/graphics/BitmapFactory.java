@@ -0,0 +1,82 @@
+package android.graphics;
+
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+import android.content.res.Resources;
+
+/**
+ * Bitmap factory decoding every image as {@link #WIDTH} x {@link #HEIGHT} bitmap without reading anything, so
+ * benchmarks measure image manager overhead rather than codecs. Decoding takes {@link #decodeNanos}, so benchmarks can
+ * simulate slow decoding.
+ */
+public class BitmapFactory
+{
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 64;
+    public static volatile long decodeNanos;
+
+    public static class Options
+    {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
+        public boolean inMutable;
+        public Bitmap inBitmap;
+        public int outWidth;
+        public int outHeight;
+        public boolean mCancel;
+
+        public void requestCancelDecode()
+        {
+            mCancel = true;
+        }
+    }
+
+    private static Bitmap decode(final Options opts)
+    {
+        final int sample = opts != null ? Math.max(1, opts.inSampleSize) : 1;
+        final int w = Math.max(1, WIDTH / sample);
+        final int h = Math.max(1, HEIGHT / sample);
+        if (opts == null)
+        {
+            return Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        }
+        opts.outWidth = WIDTH;
+        opts.outHeight = HEIGHT;
+        if (opts.inJustDecodeBounds || opts.mCancel)
+        {
+            return null;
+        }
+        if (decodeNanos > 0)
+        {
+            LockSupport.parkNanos(decodeNanos);
+        }
+        return opts.inBitmap != null ? opts.inBitmap : Bitmap.createBitmap(w, h, opts.inPreferredConfig);
+    }
+
+    public static Bitmap decodeFile(final String pathName, final Options opts)
+    {
+        return decode(opts);
+    }
+
+    public static Bitmap decodeResource(final Resources res, final int id, final Options opts)
+    {
+        return decode(opts);
+    }
+
+    public static Bitmap decodeStream(final InputStream is, final Rect outPadding, final Options opts)
+    {
+        return decode(opts);
+    }
+
+    public static Bitmap decodeByteArray(final byte[] data, final int offset, final int length, final Options opts)
+    {
+        return decode(opts);
+    }
+
+    public static Bitmap decodeByteArray(final byte[] data, final int offset, final int length)
+    {
+        return decode(null);
+    }
+}
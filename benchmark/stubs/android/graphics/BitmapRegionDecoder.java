@@ -0,0 +1,52 @@
+package android.graphics;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class BitmapRegionDecoder
+{
+    private BitmapRegionDecoder()
+    {
+        // nothing
+    }
+
+    public static BitmapRegionDecoder newInstance(final String pathName, final boolean isShareable)
+            throws IOException
+    {
+        return new BitmapRegionDecoder();
+    }
+
+    public static BitmapRegionDecoder newInstance(final InputStream is, final boolean isShareable)
+            throws IOException
+    {
+        return new BitmapRegionDecoder();
+    }
+
+    public static BitmapRegionDecoder newInstance(final byte[] data, final int offset, final int length,
+            final boolean isShareable) throws IOException
+    {
+        return new BitmapRegionDecoder();
+    }
+
+    public int getWidth()
+    {
+        return 16 * BitmapFactory.WIDTH;
+    }
+
+    public int getHeight()
+    {
+        return 16 * BitmapFactory.HEIGHT;
+    }
+
+    public Bitmap decodeRegion(final Rect rect, final BitmapFactory.Options opts)
+    {
+        final int sample = Math.max(1, opts.inSampleSize);
+        return Bitmap.createBitmap(Math.max(1, (rect.right - rect.left) / sample),
+                Math.max(1, (rect.bottom - rect.top) / sample), Bitmap.Config.ARGB_8888);
+    }
+
+    public void recycle()
+    {
+        // nothing
+    }
+}
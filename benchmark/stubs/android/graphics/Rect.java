@@ -0,0 +1,17 @@
+package android.graphics;
+
+public final class Rect
+{
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    public Rect(final int left, final int top, final int right, final int bottom)
+    {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+}
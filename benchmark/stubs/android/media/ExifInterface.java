@@ -0,0 +1,21 @@
+package android.media;
+
+import java.io.IOException;
+
+public class ExifInterface
+{
+    public ExifInterface(final String filename) throws IOException
+    {
+        // nothing
+    }
+
+    public boolean hasThumbnail()
+    {
+        return false;
+    }
+
+    public byte[] getThumbnail()
+    {
+        return null;
+    }
+}
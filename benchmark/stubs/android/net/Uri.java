@@ -0,0 +1,34 @@
+package android.net;
+
+public final class Uri
+{
+    private final String uri;
+
+    private Uri(final String uri)
+    {
+        this.uri = uri;
+    }
+
+    public static Uri parse(final String uriString)
+    {
+        return new Uri(uriString);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return uri.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+        return obj instanceof Uri && uri.equals(((Uri) obj).uri);
+    }
+
+    @Override
+    public String toString()
+    {
+        return uri;
+    }
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+public class Build
+{
+    public static class VERSION
+    {
+        public static final int SDK_INT = VERSION_CODES.KITKAT;
+    }
+
+    public static class VERSION_CODES
+    {
+        public static final int FROYO = 8;
+        public static final int GINGERBREAD = 9;
+        public static final int GINGERBREAD_MR1 = 10;
+        public static final int HONEYCOMB = 11;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int KITKAT = 19;
+    }
+}
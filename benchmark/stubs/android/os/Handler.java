@@ -0,0 +1,29 @@
+package android.os;
+
+/**
+ * Handler running posted messages right away on posting thread. Delayed messages are dropped, benchmarks don't depend
+ * on them.
+ */
+public class Handler
+{
+    public Handler(final Looper looper)
+    {
+        // nothing
+    }
+
+    public final boolean post(final Runnable r)
+    {
+        r.run();
+        return true;
+    }
+
+    public final boolean postDelayed(final Runnable r, final long delayMillis)
+    {
+        return true;
+    }
+
+    public final void removeCallbacks(final Runnable r)
+    {
+        // nothing
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+public final class Looper
+{
+    private static final Looper MAIN = new Looper();
+
+    private Looper()
+    {
+        // nothing
+    }
+
+    public static Looper getMainLooper()
+    {
+        return MAIN;
+    }
+}
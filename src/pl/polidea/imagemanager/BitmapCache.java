@@ -0,0 +1,284 @@
+package pl.polidea.imagemanager;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * Bitmap memory cache helper class. Keeps loaded bitmaps up to given size in bytes. When size is exceeded, least
+ * recently used bitmaps are evicted, background bitmaps first, then previews and then full images, so bitmaps being
+ * displayed survive longest. Evicted bitmaps are not recycled, but put to bitmap pool for reuse, except shared ones
+ * which are left for GC. Counts cache hits, misses and evictions. Entries of weakly cached bitmaps collected by GC
+ * are removed on every cache access, so cache keeps only live bitmaps. Images are indexed by image source, so images
+ * of the same source can be found without scanning whole cache.
+ */
+final class BitmapCache
+{
+    private final Map<Object, LoadedBitmap> map = new LinkedHashMap<Object, LoadedBitmap>(16, 0.75f, true);
+    private final Map<String, List<LoadedBitmap>> sources = new HashMap<String, List<LoadedBitmap>>();
+    private final ReferenceQueue<Bitmap> queue = new ReferenceQueue<Bitmap>();
+    private final BitmapPool pool;
+    private long maxSize;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    BitmapCache(final long maxSize, final BitmapPool pool)
+    {
+        this.maxSize = maxSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Get loaded bitmap and mark it as recently used. Counts cache hit or miss.
+     * 
+     * @param key
+     *            cache key.
+     * @return loaded bitmap or NULL if there is no bitmap for key.
+     */
+    synchronized LoadedBitmap get(final Object key)
+    {
+        expungeStaleEntries();
+        final LoadedBitmap limg = map.get(key);
+        if (limg != null && limg.getBitmap() != null)
+        {
+            ++hitCount;
+            limg.background = false;
+            return limg;
+        }
+
+        ++missCount;
+        return limg;
+    }
+
+    /**
+     * Get loaded bitmap without counting cache hit or miss. Used internally by image manager.
+     * 
+     * @param key
+     *            cache key.
+     * @return loaded bitmap or NULL if there is no bitmap for key.
+     */
+    synchronized LoadedBitmap peek(final Object key)
+    {
+        expungeStaleEntries();
+        return map.get(key);
+    }
+
+    synchronized boolean contains(final Object key)
+    {
+        expungeStaleEntries();
+        return map.containsKey(key);
+    }
+
+    /**
+     * Put bitmap to cache and evict least recently used bitmaps if needed. Bitmap just put is never evicted by
+     * putting it, even if it's bigger than maximum cache size, so it's delivered to listeners before it's reused.
+     * 
+     * @param key
+     *            cache key.
+     * @param bmp
+     *            bitmap.
+     * @param strong
+     *            keep bitmap with strong reference or weak reference.
+     * @param preview
+     *            bitmap is low-quality preview or not.
+     * @return previous loaded bitmap for key or NULL.
+     */
+    synchronized LoadedBitmap put(final Object key, final Bitmap bmp, final boolean strong, final boolean preview)
+    {
+        expungeStaleEntries();
+
+        final LoadedBitmap limg = new LoadedBitmap(key, bmp, strong, preview, queue);
+        size += limg.size;
+        final LoadedBitmap prev = map.put(key, limg);
+        addSource(limg);
+        if (prev != null)
+        {
+            size -= prev.size;
+            removeSource(prev);
+
+            // the same bitmap is still shared
+            limg.shared = prev.shared && prev.getBitmap() == bmp;
+        }
+        trim(maxSize, limg);
+        return prev;
+    }
+
+    synchronized LoadedBitmap remove(final Object key)
+    {
+        expungeStaleEntries();
+        final LoadedBitmap limg = map.remove(key);
+        if (limg != null)
+        {
+            size -= limg.size;
+            removeSource(limg);
+        }
+        return limg;
+    }
+
+    /**
+     * Mark bitmap as not requested for display anymore. Background bitmaps are evicted first. Bitmap is not background
+     * anymore when it's requested again.
+     * 
+     * @param key
+     *            cache key.
+     */
+    synchronized void setBackground(final Object key)
+    {
+        final LoadedBitmap limg = map.get(key);
+        if (limg != null)
+        {
+            limg.background = true;
+        }
+    }
+
+    /**
+     * Evict bitmaps until cache size is not greater than given size. Least recently used background bitmaps are
+     * evicted first, then previews and then full images.
+     * 
+     * @param trimSize
+     *            maximum cache size in bytes after trimming.
+     */
+    synchronized void trimToSize(final long trimSize)
+    {
+        trim(trimSize, null);
+    }
+
+    private void trim(final long trimSize, final LoadedBitmap keep)
+    {
+        expungeStaleEntries();
+        evict(trimSize, true, false, keep);
+        evict(trimSize, false, true, keep);
+        evict(trimSize, false, false, keep);
+    }
+
+    private void evict(final long trimSize, final boolean background, final boolean preview, final LoadedBitmap keep)
+    {
+        final Iterator<LoadedBitmap> it = map.values().iterator();
+        while (size > trimSize && it.hasNext())
+        {
+            final LoadedBitmap limg = it.next();
+            if (limg == keep || (background && !limg.background) || (preview && !limg.preview))
+            {
+                continue;
+            }
+
+            size -= limg.size;
+            it.remove();
+            removeSource(limg);
+            ++evictionCount;
+            pool.put(limg);
+        }
+    }
+
+    /**
+     * Remove entries of bitmaps collected by GC.
+     */
+    private void expungeStaleEntries()
+    {
+        Reference<? extends Bitmap> ref;
+        while ((ref = queue.poll()) != null)
+        {
+            final LoadedBitmap limg = ((LoadedBitmap.WeakBitmap) ref).owner;
+
+            // entry could be replaced meanwhile
+            if (map.get(limg.key) == limg)
+            {
+                map.remove(limg.key);
+                size -= limg.size;
+                removeSource(limg);
+            }
+        }
+    }
+
+    private void addSource(final LoadedBitmap limg)
+    {
+        if (limg.source == null)
+        {
+            return;
+        }
+
+        List<LoadedBitmap> limgs = sources.get(limg.source);
+        if (limgs == null)
+        {
+            limgs = new ArrayList<LoadedBitmap>(2);
+            sources.put(limg.source, limgs);
+        }
+        limgs.add(limg);
+    }
+
+    private void removeSource(final LoadedBitmap limg)
+    {
+        final List<LoadedBitmap> limgs = limg.source != null ? sources.get(limg.source) : null;
+        if (limgs != null && limgs.remove(limg) && limgs.isEmpty())
+        {
+            sources.remove(limg.source);
+        }
+    }
+
+    /**
+     * Get loaded images of given image source. Tiles are not included.
+     * 
+     * @param source
+     *            image source.
+     * @return loaded images of image source.
+     */
+    synchronized List<LoadedBitmap> valuesOf(final String source)
+    {
+        expungeStaleEntries();
+        final List<LoadedBitmap> limgs = sources.get(source);
+        return limgs != null ? new ArrayList<LoadedBitmap>(limgs) : new ArrayList<LoadedBitmap>(0);
+    }
+
+    synchronized List<Object> keys()
+    {
+        expungeStaleEntries();
+        return new ArrayList<Object>(map.keySet());
+    }
+
+    synchronized int count()
+    {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+    synchronized long size()
+    {
+        expungeStaleEntries();
+        return size;
+    }
+
+    synchronized long maxSize()
+    {
+        return maxSize;
+    }
+
+    synchronized void setMaxSize(final long maxSize)
+    {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    synchronized long hitCount()
+    {
+        return hitCount;
+    }
+
+    synchronized long missCount()
+    {
+        return missCount;
+    }
+
+    synchronized long evictionCount()
+    {
+        return evictionCount;
+    }
+}
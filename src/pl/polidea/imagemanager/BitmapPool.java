@@ -0,0 +1,208 @@
+package pl.polidea.imagemanager;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.os.Build;
+
+/**
+ * Bitmap pool helper class. Keeps unused mutable bitmaps up to given size in bytes, so they can be reused when decoding
+ * images of the same dimensions instead of allocating new ones. When size is exceeded, least recently pooled bitmaps
+ * are recycled. Bitmaps which can't be reused are recycled right away.
+ * <p>
+ * Pool also counts references to bitmaps in use (ex. drawn by views). Unused bitmap which is still referenced is not
+ * pooled nor recycled until its last reference is released, so bitmaps are never recycled or reused while in use.
+ */
+final class BitmapPool
+{
+    private final Map<Long, LinkedList<Bitmap>> pooled = new HashMap<Long, LinkedList<Bitmap>>();
+    private final LinkedList<Bitmap> order = new LinkedList<Bitmap>();
+    private final Map<Bitmap, Integer> refs = new IdentityHashMap<Bitmap, Integer>();
+    private final Map<Bitmap, Boolean> unused = new IdentityHashMap<Bitmap, Boolean>();
+    private long maxSize;
+    private long size;
+
+    BitmapPool(final long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Check if bitmaps can be reused when decoding on this device.
+     * 
+     * @return true if bitmaps can be reused, false otherwise.
+     */
+    static boolean isSupported()
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    private static Long key(final int width, final int height, final Config config)
+    {
+        return Long.valueOf((long) width << 32 | (long) height << 8 | config.ordinal());
+    }
+
+    /**
+     * Acquire reference to bitmap in use. Bitmap won't be pooled nor recycled until reference is released.
+     * 
+     * @param bmp
+     *            bitmap in use.
+     */
+    synchronized void acquire(final Bitmap bmp)
+    {
+        final Integer n = refs.get(bmp);
+        refs.put(bmp, Integer.valueOf(n == null ? 1 : n.intValue() + 1));
+    }
+
+    /**
+     * Release reference to bitmap in use. If this was the last reference and bitmap was put to pool meanwhile, it's
+     * pooled now.
+     * 
+     * @param bmp
+     *            bitmap not in use anymore.
+     */
+    synchronized void release(final Bitmap bmp)
+    {
+        final Integer n = refs.get(bmp);
+        if (n == null)
+        {
+            return;
+        }
+        if (n.intValue() > 1)
+        {
+            refs.put(bmp, Integer.valueOf(n.intValue() - 1));
+            return;
+        }
+
+        refs.remove(bmp);
+        if (unused.remove(bmp) != null)
+        {
+            put(bmp);
+        }
+    }
+
+    /**
+     * Put unused bitmap to pool. Bitmap is recycled if it can't be reused. Bitmap still referenced is pooled when its
+     * last reference is released.
+     * 
+     * @param bmp
+     *            unused bitmap.
+     */
+    synchronized void put(final Bitmap bmp)
+    {
+        if (bmp == null || bmp.isRecycled())
+        {
+            return;
+        }
+
+        // still in use
+        if (refs.containsKey(bmp))
+        {
+            unused.put(bmp, Boolean.TRUE);
+            return;
+        }
+
+        // can't reuse
+        final int bmpSize = LoadedBitmap.sizeOf(bmp);
+        if (!isSupported() || !bmp.isMutable() || bmp.getConfig() == null || bmpSize > maxSize)
+        {
+            bmp.recycle();
+            return;
+        }
+
+        final Long key = key(bmp.getWidth(), bmp.getHeight(), bmp.getConfig());
+        LinkedList<Bitmap> bmps = pooled.get(key);
+        if (bmps == null)
+        {
+            bmps = new LinkedList<Bitmap>();
+            pooled.put(key, bmps);
+        }
+        bmps.add(bmp);
+        order.add(bmp);
+        size += bmpSize;
+
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Put unused loaded bitmap to pool. Shared bitmap may still be used by whoever got it, so it's left for GC
+     * instead.
+     * 
+     * @param limg
+     *            unused loaded bitmap.
+     */
+    synchronized void put(final LoadedBitmap limg)
+    {
+        if (!limg.shared)
+        {
+            put(limg.getBitmap());
+        }
+    }
+
+    /**
+     * Get unused bitmap of given dimensions from pool.
+     * 
+     * @param width
+     *            bitmap width.
+     * @param height
+     *            bitmap height.
+     * @param config
+     *            bitmap config.
+     * @return unused bitmap or NULL if there is no bitmap of given dimensions.
+     */
+    synchronized Bitmap get(final int width, final int height, final Config config)
+    {
+        final LinkedList<Bitmap> bmps = pooled.get(key(width, height, config));
+        if (bmps == null || bmps.isEmpty())
+        {
+            return null;
+        }
+
+        final Bitmap bmp = bmps.removeLast();
+        order.remove(bmp);
+        size -= LoadedBitmap.sizeOf(bmp);
+        return bmp;
+    }
+
+    /**
+     * Recycle least recently pooled bitmaps until pool size is not greater than given size.
+     * 
+     * @param trimSize
+     *            maximum pool size in bytes after trimming.
+     */
+    synchronized void trimToSize(final long trimSize)
+    {
+        while (size > trimSize && !order.isEmpty())
+        {
+            final Bitmap bmp = order.removeFirst();
+            pooled.get(key(bmp.getWidth(), bmp.getHeight(), bmp.getConfig())).remove(bmp);
+            size -= LoadedBitmap.sizeOf(bmp);
+            bmp.recycle();
+        }
+    }
+
+    synchronized long size()
+    {
+        return size;
+    }
+
+    synchronized int referencedCount()
+    {
+        return refs.size();
+    }
+
+    synchronized long maxSize()
+    {
+        return maxSize;
+    }
+
+    synchronized void setMaxSize(final long maxSize)
+    {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+}
@@ -0,0 +1,479 @@
+package pl.polidea.imagemanager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Disk cache helper class. Keeps files in cache directory up to given size in bytes. When size is exceeded, least
+ * recently used files are removed. Cache state is kept in journal file, so it survives application restarts:
+ * <ul>
+ * <li>CLEAN key size - file was written
+ * <li>READ key - file was read
+ * <li>REMOVE key - file was removed
+ * </ul>
+ * Files are written to temporary files first and renamed when complete, and added to journal only after that. Files
+ * not found in journal, temporary files and journal entries without file are dropped when cache is opened, so
+ * interrupted writes never leave broken entries. Malformed last journal line left by interrupted journal write is
+ * ignored, other malformed lines clear the cache. Journal is compacted when it grows too much.
+ */
+final class DiskCache
+{
+    private static final String TAG = DiskCache.class.getSimpleName();
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String MAGIC = "pl.polidea.imagemanager.DiskCache";
+    private static final String VERSION = "1";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final Map<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private final long maxSize;
+    private long size;
+    private Writer journal;
+    private int redundantOps;
+
+    /**
+     * Open disk cache in given directory. Directory is created if needed.
+     * 
+     * @param directory
+     *            cache directory.
+     * @param maxSize
+     *            maximum cache size in bytes.
+     * @throws IOException
+     *             when cache directory can't be used.
+     */
+    DiskCache(final File directory, final long maxSize) throws IOException
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Can't create disk cache directory " + directory);
+        }
+
+        try
+        {
+            readJournal();
+        }
+        catch (final IOException e)
+        {
+            // broken journal, start from scratch
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.w(TAG, "Disk cache journal broken, clearing cache " + directory);
+            }
+            entries.clear();
+        }
+
+        removeUnknownFiles();
+        compactJournal();
+        trimToSize();
+    }
+
+    /**
+     * Get cache key for given string. Key is safe to use as file name.
+     * 
+     * @param s
+     *            string.
+     * @return cache key.
+     */
+    static String keyOf(final String s)
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(2 * digest.length);
+            for (final byte b : digest)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (final IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void readJournal() throws IOException
+    {
+        final File file = new File(directory, JOURNAL);
+        if (!file.exists())
+        {
+            return;
+        }
+
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try
+        {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine()))
+            {
+                throw new IOException("Unknown disk cache journal");
+            }
+
+            String line = reader.readLine();
+            while (line != null)
+            {
+                final String next = reader.readLine();
+                if (!readJournalLine(line))
+                {
+                    // last line could be torn by interrupted write, its entry is dropped with its file
+                    if (next != null)
+                    {
+                        throw new IOException("Unexpected disk cache journal line " + line);
+                    }
+                    if (ImageManager.isLoggingEnabled())
+                    {
+                        Log.w(TAG, "Ignoring truncated disk cache journal line " + line);
+                    }
+                    break;
+                }
+                ++redundantOps;
+                line = next;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private boolean readJournalLine(final String line)
+    {
+        final String[] parts = line.split(" ");
+        if (CLEAN.equals(parts[0]) && parts.length == 3)
+        {
+            try
+            {
+                entries.put(parts[1], Long.valueOf(parts[2]));
+            }
+            catch (final NumberFormatException e)
+            {
+                return false;
+            }
+        }
+        else if (READ.equals(parts[0]) && parts.length == 2)
+        {
+            entries.get(parts[1]);
+        }
+        else if (REMOVE.equals(parts[0]) && parts.length == 2)
+        {
+            entries.remove(parts[1]);
+        }
+        else
+        {
+            return false;
+        }
+        return true;
+    }
+
+    private void removeUnknownFiles()
+    {
+        // drop entries without file
+        size = 0;
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext())
+        {
+            final Map.Entry<String, Long> entry = it.next();
+            if (new File(directory, entry.getKey()).length() != entry.getValue().longValue())
+            {
+                it.remove();
+            }
+            else
+            {
+                size += entry.getValue().longValue();
+            }
+        }
+
+        // drop files without entry and temporary files
+        final String[] files = directory.list();
+        if (files == null)
+        {
+            return;
+        }
+        for (final String name : files)
+        {
+            if (!JOURNAL.equals(name) && !entries.containsKey(name))
+            {
+                new File(directory, name).delete();
+            }
+        }
+    }
+
+    private void compactJournal() throws IOException
+    {
+        if (journal != null)
+        {
+            journal.close();
+        }
+
+        final File tmp = new File(directory, JOURNAL_TMP);
+        final Writer writer = new BufferedWriter(new FileWriter(tmp));
+        try
+        {
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for (final Map.Entry<String, Long> entry : entries.entrySet())
+            {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        if (!tmp.renameTo(new File(directory, JOURNAL)))
+        {
+            throw new IOException("Can't replace disk cache journal " + directory);
+        }
+
+        journal = new BufferedWriter(new FileWriter(new File(directory, JOURNAL), true));
+        redundantOps = 0;
+    }
+
+    private void writeJournal(final String op, final String key, final String arg) throws IOException
+    {
+        journal.write(arg == null ? op + " " + key + "\n" : op + " " + key + " " + arg + "\n");
+        journal.flush();
+
+        if (++redundantOps >= COMPACT_THRESHOLD && redundantOps >= entries.size())
+        {
+            compactJournal();
+        }
+    }
+
+    private void trimToSize() throws IOException
+    {
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext())
+        {
+            final Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            new File(directory, entry.getKey()).delete();
+            size -= entry.getValue().longValue();
+            writeJournal(REMOVE, entry.getKey(), null);
+        }
+    }
+
+    /**
+     * Get cached file contents.
+     * 
+     * @param key
+     *            cache key.
+     * @return file contents or NULL if there is no file for key.
+     */
+    byte[] get(final String key)
+    {
+        synchronized (this)
+        {
+            if (entries.get(key) == null)
+            {
+                return null;
+            }
+
+            try
+            {
+                writeJournal(READ, key, null);
+            }
+            catch (final IOException e)
+            {
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.w(TAG, "Error while writing disk cache journal", e);
+                }
+            }
+        }
+
+        // file may be removed meanwhile
+        try
+        {
+            final InputStream is = new FileInputStream(new File(directory, key));
+            try
+            {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                final byte[] buf = new byte[8192];
+                int n;
+                while ((n = is.read(buf)) != -1)
+                {
+                    os.write(buf, 0, n);
+                }
+                return os.toByteArray();
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+        catch (final IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Put file contents to cache. Least recently used files are removed if cache size is exceeded.
+     * 
+     * @param key
+     *            cache key.
+     * @param data
+     *            file contents.
+     */
+    void put(final String key, final byte[] data)
+    {
+        if (data.length > maxSize)
+        {
+            return;
+        }
+
+        // write temporary file
+        File tmp = null;
+        try
+        {
+            tmp = File.createTempFile(key, TMP_SUFFIX, directory);
+            final OutputStream os = new FileOutputStream(tmp);
+            try
+            {
+                os.write(data);
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        catch (final IOException e)
+        {
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.w(TAG, "Error while writing disk cache file", e);
+            }
+            if (tmp != null)
+            {
+                tmp.delete();
+            }
+            return;
+        }
+
+        synchronized (this)
+        {
+            // publish file
+            if (!tmp.renameTo(new File(directory, key)))
+            {
+                tmp.delete();
+                return;
+            }
+
+            final Long prevSize = entries.put(key, Long.valueOf(data.length));
+            if (prevSize != null)
+            {
+                size -= prevSize.longValue();
+            }
+            size += data.length;
+
+            try
+            {
+                writeJournal(CLEAN, key, String.valueOf(data.length));
+                trimToSize();
+            }
+            catch (final IOException e)
+            {
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.w(TAG, "Error while writing disk cache journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove file from cache.
+     * 
+     * @param key
+     *            cache key.
+     */
+    synchronized void remove(final String key)
+    {
+        final Long prevSize = entries.remove(key);
+        if (prevSize == null)
+        {
+            return;
+        }
+
+        new File(directory, key).delete();
+        size -= prevSize.longValue();
+        try
+        {
+            writeJournal(REMOVE, key, null);
+        }
+        catch (final IOException e)
+        {
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.w(TAG, "Error while writing disk cache journal", e);
+            }
+        }
+    }
+
+    synchronized boolean contains(final String key)
+    {
+        return entries.containsKey(key);
+    }
+
+    synchronized int count()
+    {
+        return entries.size();
+    }
+
+    synchronized long size()
+    {
+        return size;
+    }
+
+    long maxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Close disk cache journal. Cache can't be used after closing.
+     */
+    synchronized void close()
+    {
+        try
+        {
+            journal.close();
+        }
+        catch (final IOException e)
+        {
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.w(TAG, "Error while closing disk cache journal", e);
+            }
+        }
+    }
+}
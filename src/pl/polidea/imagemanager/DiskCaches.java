@@ -0,0 +1,443 @@
+package pl.polidea.imagemanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
+import android.app.Application;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Disk caches helper class. Keeps disk cache of images fetched from URI, pre-scaled variants cache and HTTP fetcher,
+ * all created lazily with current configuration. Disk caches are opened holding only their own opening lock, so
+ * opening them doesn't block loading threads nor setting application on main thread.
+ */
+final class DiskCaches
+{
+    private static final String TAG = DiskCaches.class.getSimpleName();
+    private static final String DIRECTORY = ImageManager.class.getSimpleName();
+    private static final long DEFAULT_DISK_CACHE_SIZE = 10 * 1024 * 1024;
+
+    private final Metrics metrics;
+    private final Object openLock = new Object();
+    private volatile Application application;
+    private volatile ImageManagerConfiguration config = new ImageManagerConfiguration();
+    private int generation;
+    private DiskCache diskCache;
+    private boolean diskCacheFailed;
+    private DiskCache variantCache;
+    private boolean variantCacheFailed;
+    private HttpFetcher httpFetcher;
+
+    DiskCaches(final Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set application, disk caches are opened in its cache directory by default.
+     * 
+     * @param application
+     *            application context.
+     */
+    void setApplication(final Application application)
+    {
+        this.application = application;
+    }
+
+    /**
+     * Configure disk caches. Caches opened with previous configuration are closed, caches and fetcher are created
+     * again with new configuration when needed.
+     * 
+     * @param application
+     *            application context.
+     * @param config
+     *            image manager configuration.
+     */
+    synchronized void configure(final Application application, final ImageManagerConfiguration config)
+    {
+        close();
+        this.application = application;
+        this.config = config;
+        httpFetcher = null;
+    }
+
+    /**
+     * Get disk cache, opening it if needed.
+     * 
+     * @return disk cache or NULL if it's disabled or couldn't be opened.
+     */
+    DiskCache getDiskCache()
+    {
+        synchronized (this)
+        {
+            if (diskCache != null || diskCacheFailed)
+            {
+                return diskCache;
+            }
+        }
+
+        // open disk cache lazily
+        return openLazily(false);
+    }
+
+    /**
+     * Get pre-scaled variants cache, opening it if needed.
+     * 
+     * @return variants cache or NULL if it's disabled or couldn't be opened.
+     */
+    DiskCache getVariantCache()
+    {
+        synchronized (this)
+        {
+            if (variantCache != null || variantCacheFailed)
+            {
+                return variantCache;
+            }
+        }
+
+        // open variant cache lazily
+        return openLazily(true);
+    }
+
+    /**
+     * Open disk cache or variants cache with current configuration. Opening replays cache journal and trims cache, so
+     * it's done holding only opening lock. Cache opened while caches were closed or configured again is closed right
+     * away.
+     * 
+     * @param variants
+     *            open variants cache or disk cache.
+     * @return opened cache or NULL if it's disabled or couldn't be opened.
+     */
+    private DiskCache openLazily(final boolean variants)
+    {
+        synchronized (openLock)
+        {
+            // opened by other thread meanwhile
+            final ImageManagerConfiguration cfg;
+            final int gen;
+            synchronized (this)
+            {
+                final DiskCache opened = variants ? variantCache : diskCache;
+                if (opened != null || (variants ? variantCacheFailed : diskCacheFailed))
+                {
+                    return opened;
+                }
+                cfg = config;
+                gen = generation;
+            }
+
+            final Application app = application;
+            final long maxSize = variants ? cfg.variantCacheSize : cfg.diskCacheSize;
+            if (app == null || maxSize < 0)
+            {
+                return null;
+            }
+            final File dir;
+            if (variants)
+            {
+                dir = cfg.variantCacheDirectory != null ? cfg.variantCacheDirectory : new File(app.getCacheDir(),
+                        DIRECTORY + "Variants");
+            }
+            else
+            {
+                dir = cfg.diskCacheDirectory != null ? cfg.diskCacheDirectory : new File(app.getCacheDir(),
+                        DIRECTORY);
+            }
+            final DiskCache cache = open(dir, maxSize);
+
+            synchronized (this)
+            {
+                // closed meanwhile
+                if (gen != generation)
+                {
+                    if (cache != null)
+                    {
+                        cache.close();
+                    }
+                    return null;
+                }
+
+                if (variants)
+                {
+                    variantCache = cache;
+                    variantCacheFailed = cache == null;
+                }
+                else
+                {
+                    diskCache = cache;
+                    diskCacheFailed = cache == null;
+                }
+                return cache;
+            }
+        }
+    }
+
+    private synchronized HttpFetcher getHttpFetcher()
+    {
+        // create fetcher lazily
+        if (httpFetcher == null)
+        {
+            httpFetcher = new HttpFetcher(config.connectTimeout, config.readTimeout, config.maxConnectionsPerHost,
+                    config.fetchRetries, config.fetchRetryDelay);
+        }
+        return httpFetcher;
+    }
+
+    private static DiskCache open(final File dir, final long maxSize)
+    {
+        final long size = maxSize > 0 ? maxSize : DEFAULT_DISK_CACHE_SIZE;
+        try
+        {
+            final DiskCache cache = new DiskCache(dir, size);
+
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.d(TAG, "Disk cache opened in " + dir + ", " + cache.size() / 1024 + "[kB] of " + size / 1024
+                        + "[kB] used");
+            }
+
+            return cache;
+        }
+        catch (final IOException e)
+        {
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.e(TAG, "Error while opening disk cache in " + dir, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Close disk caches. Caches are opened again when needed.
+     */
+    synchronized void close()
+    {
+        ++generation;
+        if (diskCache != null)
+        {
+            diskCache.close();
+        }
+        diskCache = null;
+        diskCacheFailed = false;
+
+        if (variantCache != null)
+        {
+            variantCache.close();
+        }
+        variantCache = null;
+        variantCacheFailed = false;
+    }
+
+    /**
+     * Fetch image from URI. Image is looked for in disk cache first, fetched image is saved to disk cache.
+     * 
+     * @param req
+     *            image request.
+     * @param task
+     *            task fetching image or NULL, fetching is aborted when task is cancelled.
+     * @param attempt
+     *            number of fetching attempts already made, 0 for first fetch.
+     * @return fetched image data.
+     * @throws IOException
+     *             when image couldn't be fetched.
+     */
+    byte[] fetch(final ImageManagerRequest req, final Future<?> task, final int attempt) throws IOException
+    {
+        // look for image in disk cache
+        final DiskCache cache = getDiskCache();
+        final String key = cache != null ? DiskCache.keyOf(normalizeUri(req.uri)) : null;
+        if (cache != null)
+        {
+            final byte[] data = cache.get(key);
+            if (data != null)
+            {
+                metrics.diskCacheHits.incrementAndGet();
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.d(TAG, "Image " + req + " found in disk cache");
+                }
+                return data;
+            }
+            metrics.diskCacheMisses.incrementAndGet();
+        }
+
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, "Fetching image " + req);
+        }
+
+        final long t = System.nanoTime();
+        final byte[] data;
+        try
+        {
+            data = getHttpFetcher().fetch(req.uri.toString(), task, attempt);
+        }
+        catch (final HttpFetcher.HostBusyException e)
+        {
+            throw e;
+        }
+        catch (final HttpFetcher.RetryException e)
+        {
+            throw e;
+        }
+        catch (final IOException e)
+        {
+            // cancelled fetches are not errors
+            if (task == null || !task.isCancelled())
+            {
+                metrics.fetchErrors.incrementAndGet();
+            }
+            throw e;
+        }
+        metrics.recordFetch(System.nanoTime() - t, data);
+
+        // save image to disk cache
+        if (cache != null)
+        {
+            cache.put(key, data);
+        }
+
+        return data;
+    }
+
+    /**
+     * Get pre-scaled variant cache key. Variant is identified by image source (file path, size and modification time
+     * or URI) and decoding options. Only sub-sampled or rescaled images from file or URI have variants.
+     * 
+     * @param req
+     *            image request.
+     * @return variant cache key or NULL if image has no variant.
+     */
+    String getVariantKey(final ImageManagerRequest req)
+    {
+        if (config.variantCacheSize < 0 || req.resId >= 0
+                || (req.subsample <= 1 && (req.width <= 0 || req.height <= 0)))
+        {
+            return null;
+        }
+
+        final String source;
+        if (req.filename != null)
+        {
+            final File file = new File(req.filename);
+            source = "file " + file.getAbsolutePath() + " " + file.length() + " " + file.lastModified();
+        }
+        else if (req.uri != null)
+        {
+            source = "uri " + normalizeUri(req.uri);
+        }
+        else
+        {
+            return null;
+        }
+
+        return DiskCache.keyOf(source + " " + req.subsample + " " + req.width + "x" + req.height);
+    }
+
+    boolean isVariantCached(final ImageManagerRequest req)
+    {
+        final String key = getVariantKey(req);
+        final DiskCache cache = key != null ? getVariantCache() : null;
+        return cache != null && cache.contains(key);
+    }
+
+    /**
+     * Check if image is on disk already, so it doesn't have to be fetched. Pre-scaled variant is the best image can
+     * have on disk, images from file system and resources are always on disk.
+     * 
+     * @param req
+     *            image request.
+     * @return true if image is on disk or disk cache is disabled, false otherwise.
+     */
+    boolean isOnDisk(final ImageManagerRequest req)
+    {
+        final String variantKey = getVariantKey(req);
+        if (variantKey != null)
+        {
+            return isVariantCached(req);
+        }
+
+        if (req.filename != null || req.resId >= 0 || req.uri == null)
+        {
+            return true;
+        }
+        final DiskCache cache = getDiskCache();
+        return cache == null || cache.contains(DiskCache.keyOf(normalizeUri(req.uri)));
+    }
+
+    /**
+     * Log disk caches status. Caches not opened yet are skipped.
+     * 
+     * @param tag
+     *            log tag.
+     */
+    synchronized void logStatus(final String tag)
+    {
+        if (diskCache != null)
+        {
+            Log.d(tag, "Disk cached images: " + diskCache.count() + ", size: " + diskCache.size() / 1024 + "[kB] of "
+                    + diskCache.maxSize() / 1024 + "[kB]");
+        }
+        if (variantCache != null)
+        {
+            Log.d(tag, "Disk cached variants: " + variantCache.count() + ", size: " + variantCache.size() / 1024
+                    + "[kB] of " + variantCache.maxSize() / 1024 + "[kB]");
+        }
+    }
+
+    /**
+     * Normalize URI, so different forms of the same URI give the same disk cache key. Scheme and host are lower-cased,
+     * default port, dot segments and fragment are removed.
+     * 
+     * @param uri
+     *            URI.
+     * @return normalized URI string.
+     */
+    static String normalizeUri(final Uri uri)
+    {
+        final String s = uri.toString();
+        try
+        {
+            final URI u = new URI(s).normalize();
+            if (u.isOpaque() || u.getScheme() == null || u.getHost() == null)
+            {
+                return s;
+            }
+
+            final String scheme = u.getScheme().toLowerCase(Locale.US);
+            int port = u.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443))
+            {
+                port = -1;
+            }
+
+            final StringBuilder sb = new StringBuilder(s.length());
+            sb.append(scheme).append("://");
+            if (u.getRawUserInfo() != null)
+            {
+                sb.append(u.getRawUserInfo()).append('@');
+            }
+            sb.append(u.getHost().toLowerCase(Locale.US));
+            if (port != -1)
+            {
+                sb.append(':').append(port);
+            }
+            sb.append(u.getRawPath() == null || u.getRawPath().length() == 0 ? "/" : u.getRawPath());
+            if (u.getRawQuery() != null)
+            {
+                sb.append('?').append(u.getRawQuery());
+            }
+            return sb.toString();
+        }
+        catch (final URISyntaxException e)
+        {
+            return s;
+        }
+    }
+}
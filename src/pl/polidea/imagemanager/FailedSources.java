@@ -0,0 +1,85 @@
+package pl.polidea.imagemanager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.SystemClock;
+
+/**
+ * Failed image sources helper class. Remembers image sources (missing files, undecodable resources, URIs which
+ * couldn't be fetched) for given time after loading them failed, so they're not loaded again and again meanwhile. Only
+ * given number of most recently failed sources is remembered.
+ */
+final class FailedSources
+{
+    private final Map<String, Long> expiries;
+
+    FailedSources(final int maxCount)
+    {
+        expiries = new LinkedHashMap<String, Long>(16, 0.75f, false)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest)
+            {
+                return size() > maxCount;
+            }
+        };
+    }
+
+    /**
+     * Remember failed image source.
+     * 
+     * @param source
+     *            image source.
+     * @param timeout
+     *            time in milliseconds to remember source for.
+     */
+    synchronized void add(final String source, final long timeout)
+    {
+        // most recently failed sources are remembered longest
+        expiries.remove(source);
+        expiries.put(source, Long.valueOf(SystemClock.elapsedRealtime() + timeout));
+    }
+
+    /**
+     * Check if image source failed recently. Expired sources are forgotten.
+     * 
+     * @param source
+     *            image source.
+     * @return true if loading image source failed and timeout hasn't expired yet, false otherwise.
+     */
+    synchronized boolean contains(final String source)
+    {
+        final Long expiry = expiries.get(source);
+        if (expiry == null)
+        {
+            return false;
+        }
+        if (expiry.longValue() <= SystemClock.elapsedRealtime())
+        {
+            expiries.remove(source);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget all failed image sources.
+     */
+    synchronized void clear()
+    {
+        expiries.clear();
+    }
+
+    /**
+     * Get number of remembered image sources.
+     * 
+     * @return number of remembered image sources, including expired ones.
+     */
+    synchronized int size()
+    {
+        return expiries.size();
+    }
+}
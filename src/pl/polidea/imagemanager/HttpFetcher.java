@@ -0,0 +1,312 @@
+package pl.polidea.imagemanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * HTTP fetcher helper class. Fetches data from URL with connect and read timeouts and limits number of concurrent
+ * connections to each host, so one slow host can't block fetching from others. Fetching from host with all
+ * connections in use fails right away with {@link HostBusyException}, so fetching thread can fetch from other hosts
+ * meanwhile. Failed fetches are retried with exponentially growing delay when failure may be temporary: I/O errors,
+ * timeouts, server errors (5xx) and throttling (429). Fetch for task isn't retried by fetching thread, it fails with
+ * {@link RetryException}, so task can be retried later and fetching thread isn't blocked by flaky host. Responses
+ * are always read whole and closed, so connections are kept alive and reused.
+ */
+final class HttpFetcher
+{
+    private static final String TAG = HttpFetcher.class.getSimpleName();
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    /**
+     * HTTP error helper class. Unsuccessful HTTP response, which can be retried or not.
+     */
+    private static final class HttpException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final boolean retryable;
+
+        HttpException(final String url, final int code)
+        {
+            super("HTTP error " + code + " while fetching " + url);
+            this.retryable = code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS;
+        }
+    }
+
+    /**
+     * Host busy error helper class. All connections to host are in use, fetch should be tried again later.
+     */
+    static final class HostBusyException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        HostBusyException(final String host)
+        {
+            super("All connections to " + host + " in use");
+        }
+    }
+
+    /**
+     * Retry error helper class. Fetch failed temporarily, it should be retried after delay.
+     */
+    static final class RetryException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int attempt;
+        final long delay;
+
+        RetryException(final String url, final int attempt, final long delay, final IOException cause)
+        {
+            super("Error while fetching " + url + ", retry " + attempt + " in " + delay + "[msec]");
+            initCause(cause);
+            this.attempt = attempt;
+            this.delay = delay;
+        }
+    }
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxConnectionsPerHost;
+    private final int maxRetries;
+    private final long retryDelay;
+    private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * Create HTTP fetcher.
+     * 
+     * @param connectTimeout
+     *            connect timeout in milliseconds, 0 means no timeout.
+     * @param readTimeout
+     *            read timeout in milliseconds, 0 means no timeout.
+     * @param maxConnectionsPerHost
+     *            maximum number of concurrent connections to one host, 0 or less means no limit.
+     * @param maxRetries
+     *            maximum number of retries of failed fetch.
+     * @param retryDelay
+     *            delay in milliseconds before first retry, doubled before each next retry.
+     */
+    HttpFetcher(final int connectTimeout, final int readTimeout, final int maxConnectionsPerHost,
+            final int maxRetries, final long retryDelay)
+    {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+
+        // connection reuse is broken before Froyo
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO)
+        {
+            System.setProperty("http.keepAlive", "false");
+        }
+    }
+
+    /**
+     * Fetch data from URL, retrying temporary failures. Fetching for task fails right away when all connections to
+     * host are in use or fetch should be retried, so task can be deferred. Fetching without task waits for connection
+     * and waits before retries.
+     * 
+     * @param url
+     *            URL.
+     * @param task
+     *            task data is fetched for or NULL.
+     * @param attempt
+     *            number of attempts already made, 0 for first fetch.
+     * @return fetched data.
+     * @throws HostBusyException
+     *             when fetching for task and all connections to host are in use.
+     * @throws RetryException
+     *             when fetching for task failed temporarily and should be retried.
+     * @throws InterruptedIOException
+     *             when fetching is interrupted or task is cancelled.
+     * @throws IOException
+     *             when data can't be fetched.
+     */
+    byte[] fetch(final String url, final Future<?> task, final int attempt) throws IOException
+    {
+        final URL u = new URL(url);
+        for (int a = attempt;; ++a)
+        {
+            if (task != null && task.isCancelled())
+            {
+                throw new InterruptedIOException("Fetching " + url + " cancelled");
+            }
+
+            try
+            {
+                return fetchWithHostLimit(u, task == null);
+            }
+            catch (final HostBusyException e)
+            {
+                // not an error, retried later by caller
+                throw e;
+            }
+            catch (final InterruptedIOException e)
+            {
+                // cancelled or timed out
+                if (Thread.currentThread().isInterrupted() || a >= maxRetries)
+                {
+                    throw e;
+                }
+                retryAfterDelay(url, task, a, e);
+            }
+            catch (final HttpException e)
+            {
+                if (!e.retryable || a >= maxRetries)
+                {
+                    throw e;
+                }
+                retryAfterDelay(url, task, a, e);
+            }
+            catch (final IOException e)
+            {
+                if (a >= maxRetries)
+                {
+                    throw e;
+                }
+                retryAfterDelay(url, task, a, e);
+            }
+        }
+    }
+
+    private void retryAfterDelay(final String url, final Future<?> task, final int attempt, final IOException e)
+            throws IOException
+    {
+        final long delay = Math.min(MAX_RETRY_DELAY, retryDelay << Math.min(attempt, 16));
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.w(TAG, "Error while fetching " + url + ", retrying in " + delay + "[msec]: " + e.getMessage());
+        }
+
+        // don't block fetching thread waiting for retry
+        if (task != null)
+        {
+            throw new RetryException(url, attempt + 1, delay, e);
+        }
+
+        try
+        {
+            Thread.sleep(delay);
+        }
+        catch (final InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Fetching " + url + " interrupted");
+        }
+    }
+
+    private byte[] fetchWithHostLimit(final URL url, final boolean wait) throws IOException
+    {
+        // no limit
+        final String host = url.getHost();
+        if (maxConnectionsPerHost <= 0 || host == null)
+        {
+            return fetchOnce(url);
+        }
+
+        Semaphore semaphore = hosts.get(host);
+        if (semaphore == null)
+        {
+            final Semaphore newSemaphore = new Semaphore(maxConnectionsPerHost, true);
+            semaphore = hosts.putIfAbsent(host, newSemaphore);
+            if (semaphore == null)
+            {
+                semaphore = newSemaphore;
+            }
+        }
+
+        if (wait)
+        {
+            try
+            {
+                semaphore.acquire();
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Fetching " + url + " interrupted");
+            }
+        }
+
+        // don't block fetching thread waiting for connection
+        else if (!semaphore.tryAcquire())
+        {
+            throw new HostBusyException(host);
+        }
+        try
+        {
+            return fetchOnce(url);
+        }
+        finally
+        {
+            semaphore.release();
+        }
+    }
+
+    private byte[] fetchOnce(final URL url) throws IOException
+    {
+        final URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+
+        // unsuccessful response, error body is read so connection can be reused
+        if (conn instanceof HttpURLConnection)
+        {
+            final HttpURLConnection http = (HttpURLConnection) conn;
+            final int code = http.getResponseCode();
+            if (code / 100 != 2)
+            {
+                final InputStream es = http.getErrorStream();
+                if (es != null)
+                {
+                    try
+                    {
+                        read(es);
+                    }
+                    finally
+                    {
+                        es.close();
+                    }
+                }
+                throw new HttpException(url.toString(), code);
+            }
+        }
+
+        final InputStream is = conn.getInputStream();
+        try
+        {
+            return read(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static byte[] read(final InputStream is) throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) != -1)
+        {
+            os.write(buf, 0, n);
+        }
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,718 @@
+package pl.polidea.imagemanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapFactory.Options;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Image decoder helper class. Decodes images, previews and tiles from file system, application resources or data
+ * fetched from URI. Bigger image of the same source already in memory cache is scaled down instead of decoding,
+ * pre-scaled variants are looked for in and saved to variants cache and decoded bitmaps reuse pooled ones. Most
+ * recently used region decoders are kept open for decoding tiles.
+ */
+final class ImageDecoder
+{
+    private static final String TAG = ImageDecoder.class.getSimpleName();
+    private static final int VARIANT_QUALITY = 90;
+    private static final int MAX_REGION_DECODERS = 4;
+    private static final int MAX_UNTILED_SOURCES = 256;
+
+    private final BitmapCache loaded;
+    private final BitmapPool pool;
+    private final DiskCaches diskCaches;
+    private final Metrics metrics;
+    private volatile Application application;
+    private volatile ImageManagerConfiguration config = new ImageManagerConfiguration();
+    private final Map<String, BitmapRegionDecoder> regionDecoders = new LinkedHashMap<String, BitmapRegionDecoder>(16,
+            0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, BitmapRegionDecoder> eldest)
+        {
+            if (size() <= MAX_REGION_DECODERS)
+            {
+                return false;
+            }
+            eldest.getValue().recycle();
+            return true;
+        }
+    };
+    private final Set<String> untiledSources = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16,
+            0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest)
+        {
+            return size() > MAX_UNTILED_SOURCES;
+        }
+    });
+
+    ImageDecoder(final BitmapCache loaded, final BitmapPool pool, final DiskCaches diskCaches, final Metrics metrics)
+    {
+        this.loaded = loaded;
+        this.pool = pool;
+        this.diskCaches = diskCaches;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Configure image decoder.
+     * 
+     * @param application
+     *            application context, its resources are decoded.
+     * @param config
+     *            image manager configuration.
+     */
+    void configure(final Application application, final ImageManagerConfiguration config)
+    {
+        this.application = application;
+        this.config = config;
+    }
+
+    /**
+     * Load image request synchronously.
+     * 
+     * @param req
+     *            image request.
+     * @param preview
+     *            loading preview or not.
+     * @param opts
+     *            decoding options, decoding can be cancelled with them.
+     * @param data
+     *            fetched image data or NULL, image from URI is fetched if needed.
+     * @return loaded image or NULL if it couldn't be loaded.
+     */
+    Bitmap loadImage(final ImageManagerRequest req, final boolean preview, final Options opts,
+            final byte[] data)
+    {
+        // no request
+        if (req == null)
+        {
+            return null;
+        }
+
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, "Loading " + (preview ? "preview" : "full") + " image " + req);
+        }
+
+        // scale down bigger image of the same source instead of decoding
+        if (!preview)
+        {
+            final Bitmap bmp = scaleLoadedImage(req);
+            if (bmp != null)
+            {
+                return bmp;
+            }
+        }
+
+        // look for pre-scaled variant
+        final String variantKey = preview ? null : diskCaches.getVariantKey(req);
+        if (variantKey != null)
+        {
+            final Bitmap bmp = loadVariant(req, variantKey, opts);
+            if (bmp != null)
+            {
+                return bmp;
+            }
+        }
+
+        byte[] d = data;
+
+        // check file
+        if (req.filename != null)
+        {
+            final File file = new File(req.filename);
+            if (!file.exists() || file.isDirectory())
+            {
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.e(TAG, "Error while loading image " + req + ". File does not exist.");
+                }
+                return null;
+            }
+
+            // embedded thumbnail is good enough for preview
+            if (preview && config.exifThumbnailPreview)
+            {
+                final Bitmap bmp = loadExifThumbnail(req);
+                if (bmp != null)
+                {
+                    return bmp;
+                }
+            }
+        }
+
+        // fetch from uri
+        else if (req.resId < 0 && req.uri != null && d == null)
+        {
+            try
+            {
+                d = diskCaches.fetch(req, null, 0);
+            }
+            catch (final IOException e)
+            {
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.e(TAG, "Error while fetching image from uri " + req.uri);
+                }
+                return null;
+            }
+        }
+
+        // sub-sampling options
+        opts.inSampleSize = (preview ? 8 : 1) * req.subsample;
+
+        // reuse pooled bitmap, resources are scaled to density so their size is not known
+        final boolean reuse = BitmapPool.isSupported() && pool.maxSize() > 0 && req.resId < 0;
+        final boolean rescale = !preview && (req.width > 0 && req.height > 0);
+
+        // decode image bounds first
+        if (reuse || rescale)
+        {
+            opts.inJustDecodeBounds = true;
+            decodeImage(req, opts, d);
+            opts.inJustDecodeBounds = false;
+        }
+
+        // sub-sample as much as possible while staying above desired dimensions
+        if (rescale && opts.outWidth > 0 && opts.outHeight > 0)
+        {
+            while (opts.outWidth / (2 * opts.inSampleSize) >= req.width
+                    && opts.outHeight / (2 * opts.inSampleSize) >= req.height)
+            {
+                opts.inSampleSize *= 2;
+            }
+        }
+
+        // decode mutable bitmap, so it can be reused later, options fields are available since Honeycomb
+        Bitmap inBitmap = null;
+        if (reuse)
+        {
+            opts.inMutable = true;
+
+            // before KitKat only bitmaps of exactly the same size can be reused
+            final int s = opts.inSampleSize;
+            if (opts.outWidth > 0 && (s == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT))
+            {
+                inBitmap = pool.get((opts.outWidth + s - 1) / s, (opts.outHeight + s - 1) / s,
+                        Bitmap.Config.ARGB_8888);
+                opts.inBitmap = inBitmap;
+            }
+        }
+
+        Bitmap bmp;
+        try
+        {
+            bmp = decodeImage(req, opts, d);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            // pooled bitmap can't be reused
+            if (inBitmap == null)
+            {
+                throw e;
+            }
+            inBitmap.recycle();
+            inBitmap = null;
+            opts.inBitmap = null;
+            bmp = decodeImage(req, opts, d);
+        }
+
+        // error while decoding
+        if (bmp == null)
+        {
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.e(TAG, "Error while decoding image " + req);
+            }
+            pool.put(inBitmap);
+            return null;
+        }
+
+        // rescaling
+        if (rescale && (bmp.getWidth() != req.width || bmp.getHeight() != req.height))
+        {
+            final Bitmap sBmp = Bitmap.createScaledBitmap(bmp, req.width, req.height, true);
+            if (sBmp != bmp)
+            {
+                pool.put(bmp);
+                bmp = sBmp;
+            }
+        }
+
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, (preview ? "Preview" : "Full") + " image " + req + " loaded");
+        }
+
+        // save pre-scaled variant
+        if (variantKey != null)
+        {
+            saveVariant(req, variantKey, bmp);
+        }
+
+        return bmp;
+    }
+
+    /**
+     * Scale down already loaded image of the same source. Loaded image has to be bigger than requested one and have
+     * the same aspect ratio, which means it's either rescaled to proportional dimensions or sub-sampled by divisor of
+     * requested sub-sampling. Smallest such image is used.
+     * 
+     * @param req
+     *            image request.
+     * @return scaled image or NULL if there is no suitable loaded image.
+     */
+    private Bitmap scaleLoadedImage(final ImageManagerRequest req)
+    {
+        final boolean rescale = req.width > 0 && req.height > 0;
+        Object srcKey = null;
+        Bitmap src = null;
+        int width = 0;
+        int height = 0;
+        for (final LoadedBitmap limg : loaded.valuesOf(TileKey.sourceOf(req)))
+        {
+            if (limg.preview)
+            {
+                continue;
+            }
+            final ImageManagerRequest other = ((ImageKey) limg.key).req;
+
+            // rescaled image needs the same aspect ratio, sub-sampled image needs sub-sampling divisor
+            final boolean otherRescaled = other.width > 0 && other.height > 0;
+            if (rescale ? otherRescaled && (long) other.width * req.height != (long) other.height * req.width
+                    : otherRescaled || req.subsample % other.subsample != 0)
+            {
+                continue;
+            }
+
+            final Bitmap bmp = limg.getBitmap();
+            if (bmp == null || bmp.isRecycled())
+            {
+                continue;
+            }
+            final int w = rescale ? req.width : bmp.getWidth() * other.subsample / req.subsample;
+            final int h = rescale ? req.height : bmp.getHeight() * other.subsample / req.subsample;
+            if (w > 0 && h > 0 && bmp.getWidth() >= w && bmp.getHeight() >= h
+                    && (src == null || bmp.getWidth() < src.getWidth()))
+            {
+                srcKey = limg.key;
+                src = bmp;
+                width = w;
+                height = h;
+            }
+        }
+
+        // no suitable image
+        if (src == null)
+        {
+            return null;
+        }
+
+        // keep source image from being recycled while scaling
+        synchronized (loaded)
+        {
+            final LoadedBitmap limg = loaded.peek(srcKey);
+            if (limg == null || limg.getBitmap() != src)
+            {
+                return null;
+            }
+            pool.acquire(src);
+        }
+
+        // cached images are never shared between keys
+        final Bitmap bmp;
+        try
+        {
+            bmp = src.getWidth() == width && src.getHeight() == height ? src.copy(src.getConfig(), true) : Bitmap
+                    .createScaledBitmap(src, width, height, true);
+        }
+        finally
+        {
+            pool.release(src);
+        }
+
+        if (ImageManager.isLoggingEnabled() && bmp != null)
+        {
+            Log.d(TAG, "Image " + req + " scaled from loaded image");
+        }
+        return bmp;
+    }
+
+    private Bitmap loadVariant(final ImageManagerRequest req, final String key, final Options opts)
+    {
+        final DiskCache cache = diskCaches.getVariantCache();
+        final byte[] data = cache != null ? cache.get(key) : null;
+        if (data == null)
+        {
+            if (cache != null)
+            {
+                metrics.variantCacheMisses.incrementAndGet();
+            }
+            return null;
+        }
+        metrics.variantCacheHits.incrementAndGet();
+
+        // variant is already sub-sampled and rescaled
+        opts.inSampleSize = 1;
+
+        // options fields are available since Honeycomb
+        final boolean reuse = BitmapPool.isSupported() && pool.maxSize() > 0;
+        Bitmap inBitmap = null;
+        if (reuse)
+        {
+            opts.inMutable = true;
+            if (req.width > 0 && req.height > 0)
+            {
+                inBitmap = pool.get(req.width, req.height, Bitmap.Config.ARGB_8888);
+                opts.inBitmap = inBitmap;
+            }
+        }
+
+        final long t = System.nanoTime();
+        Bitmap bmp;
+        try
+        {
+            bmp = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            // pooled bitmap can't be reused
+            if (inBitmap == null)
+            {
+                throw e;
+            }
+            inBitmap.recycle();
+            inBitmap = null;
+            opts.inBitmap = null;
+            bmp = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        }
+        metrics.recordDecode(req, System.nanoTime() - t, bmp, opts.mCancel);
+        if (bmp == null)
+        {
+            pool.put(inBitmap);
+        }
+        if (reuse)
+        {
+            opts.inBitmap = null;
+        }
+
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, "Image " + req + (bmp != null ? " loaded from variant cache" : " variant cache broken"));
+        }
+
+        return bmp;
+    }
+
+    private void saveVariant(final ImageManagerRequest req, final String key, final Bitmap bmp)
+    {
+        final DiskCache cache = diskCaches.getVariantCache();
+        if (cache == null)
+        {
+            return;
+        }
+
+        // JPEG is most compact, but PNG is needed to keep transparency
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        if (bmp.hasAlpha())
+        {
+            bmp.compress(Bitmap.CompressFormat.PNG, 100, os);
+        }
+        else
+        {
+            bmp.compress(Bitmap.CompressFormat.JPEG, VARIANT_QUALITY, os);
+        }
+        cache.put(key, os.toByteArray());
+
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, "Image " + req + " saved to variant cache, " + os.size() / 1024 + "[kB]");
+        }
+    }
+
+    /**
+     * Load thumbnail embedded in image file EXIF data. Camera pictures usually have one, so it's read with just a few
+     * kilobytes of I/O instead of decoding whole image.
+     * 
+     * @param req
+     *            image request.
+     * @return embedded thumbnail or NULL if image file has no thumbnail.
+     */
+    private Bitmap loadExifThumbnail(final ImageManagerRequest req)
+    {
+        final byte[] thumb;
+        try
+        {
+            final ExifInterface exif = new ExifInterface(req.filename);
+            thumb = exif.hasThumbnail() ? exif.getThumbnail() : null;
+        }
+        catch (final IOException e)
+        {
+            return null;
+        }
+        if (thumb == null)
+        {
+            return null;
+        }
+
+        final long t = System.nanoTime();
+        final Bitmap bmp = BitmapFactory.decodeByteArray(thumb, 0, thumb.length);
+        metrics.recordDecode(req, System.nanoTime() - t, bmp, false);
+        if (bmp != null && ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, "Preview image " + req + " loaded from EXIF thumbnail");
+        }
+        return bmp;
+    }
+
+    private Bitmap decodeImage(final ImageManagerRequest req, final Options opts, final byte[] data)
+    {
+        final long t = System.nanoTime();
+        final Bitmap bmp;
+        if (req.filename != null)
+        {
+            bmp = BitmapFactory.decodeFile(req.filename, opts);
+        }
+        else if (req.resId >= 0)
+        {
+            bmp = BitmapFactory.decodeResource(application.getResources(), req.resId, opts);
+        }
+        else if (data != null)
+        {
+            bmp = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        }
+        else
+        {
+            // nothing to decode
+            return null;
+        }
+
+        // decoding bounds doesn't decode bitmap
+        if (!opts.inJustDecodeBounds)
+        {
+            metrics.recordDecode(req, System.nanoTime() - t, bmp, opts.mCancel);
+        }
+        return bmp;
+    }
+
+    /**
+     * Load image tile. Decodes only image area covered by tile, so images bigger than available memory or maximum
+     * texture size can be shown part by part.
+     * 
+     * @param tile
+     *            image tile.
+     * @param opts
+     *            decoding options.
+     * @param data
+     *            fetched image data or NULL.
+     * @return loaded tile or NULL if tile couldn't be loaded or tile stands for image source itself.
+     */
+    Bitmap loadTile(final TileKey tile, final Options opts, final byte[] data)
+    {
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, "Loading tile " + tile);
+        }
+
+        final BitmapRegionDecoder decoder = getRegionDecoder(tile, data);
+        if (decoder == null || tile.sample <= 0)
+        {
+            return null;
+        }
+
+        // tile area clipped to image
+        final int span = ImageManager.TILE_SIZE * tile.sample;
+        final Rect rect = new Rect(tile.col * span, tile.row * span, Math.min((tile.col + 1) * span,
+                decoder.getWidth()), Math.min((tile.row + 1) * span, decoder.getHeight()));
+        if (rect.left >= rect.right || rect.top >= rect.bottom)
+        {
+            return null;
+        }
+
+        opts.inSampleSize = tile.sample;
+        final long t = System.nanoTime();
+        final Bitmap bmp;
+        try
+        {
+            bmp = decoder.decodeRegion(rect, opts);
+        }
+        catch (final IllegalStateException e)
+        {
+            // region decoder closed meanwhile
+            return null;
+        }
+        metrics.recordDecode(tile.req, System.nanoTime() - t, bmp, opts.mCancel);
+
+        if (ImageManager.isLoggingEnabled())
+        {
+            Log.d(TAG, "Tile " + tile + (bmp != null ? " loaded" : " couldn't be decoded"));
+        }
+        return bmp;
+    }
+
+    boolean isRegionDecoderOpened(final String source)
+    {
+        synchronized (regionDecoders)
+        {
+            return regionDecoders.containsKey(source);
+        }
+    }
+
+    /**
+     * Check if image source couldn't be opened by region decoder. Such image is drawn whole, it's not opened again
+     * until region decoders are closed.
+     * 
+     * @param source
+     *            image source.
+     * @return true if opening region decoder of image source failed, false otherwise.
+     */
+    boolean isUntiled(final String source)
+    {
+        synchronized (regionDecoders)
+        {
+            return untiledSources.contains(source);
+        }
+    }
+
+    /**
+     * Remember image source can't be opened by region decoder, because its format isn't supported or its data couldn't
+     * be fetched.
+     * 
+     * @param source
+     *            image source.
+     */
+    void setUntiled(final String source)
+    {
+        synchronized (regionDecoders)
+        {
+            untiledSources.add(source);
+        }
+    }
+
+    /**
+     * Get size of image opened by region decoder.
+     * 
+     * @param source
+     *            image source.
+     * @return image size or NULL if region decoder of image source is not opened.
+     */
+    Point getRegionDecoderSize(final String source)
+    {
+        synchronized (regionDecoders)
+        {
+            final BitmapRegionDecoder decoder = regionDecoders.get(source);
+            return decoder != null ? new Point(decoder.getWidth(), decoder.getHeight()) : null;
+        }
+    }
+
+    /**
+     * Get region decoder of tile image source. Most recently used region decoders are kept open. Region decoder is
+     * opened without holding region decoders lock, so opening big image doesn't block other tiles.
+     * 
+     * @param tile
+     *            image tile.
+     * @param data
+     *            fetched image data or NULL.
+     * @return region decoder or NULL if image source can't be decoded by regions.
+     */
+    private BitmapRegionDecoder getRegionDecoder(final TileKey tile, final byte[] data)
+    {
+        synchronized (regionDecoders)
+        {
+            final BitmapRegionDecoder decoder = regionDecoders.get(tile.source);
+            if (decoder != null)
+            {
+                return decoder;
+            }
+        }
+
+        final ImageManagerRequest req = tile.req;
+        final BitmapRegionDecoder decoder;
+        try
+        {
+            if (req.filename != null)
+            {
+                decoder = BitmapRegionDecoder.newInstance(req.filename, false);
+            }
+            else if (req.resId >= 0)
+            {
+                final InputStream is = application.getResources().openRawResource(req.resId);
+                try
+                {
+                    decoder = BitmapRegionDecoder.newInstance(is, false);
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+            else
+            {
+                final byte[] d = data != null ? data : diskCaches.fetch(req, null, 0);
+                decoder = BitmapRegionDecoder.newInstance(d, 0, d.length, false);
+            }
+        }
+        catch (final IOException e)
+        {
+            if (ImageManager.isLoggingEnabled())
+            {
+                Log.e(TAG, "Error while opening region decoder for " + tile.source, e);
+            }
+            setUntiled(tile.source);
+            return null;
+        }
+
+        if (decoder == null)
+        {
+            setUntiled(tile.source);
+            return null;
+        }
+        synchronized (regionDecoders)
+        {
+            // opened by other thread meanwhile
+            final BitmapRegionDecoder opened = regionDecoders.get(tile.source);
+            if (opened != null)
+            {
+                decoder.recycle();
+                return opened;
+            }
+            regionDecoders.put(tile.source, decoder);
+            return decoder;
+        }
+    }
+
+    void closeRegionDecoders()
+    {
+        synchronized (regionDecoders)
+        {
+            for (final BitmapRegionDecoder decoder : regionDecoders.values())
+            {
+                decoder.recycle();
+            }
+            regionDecoders.clear();
+            untiledSources.clear();
+        }
+    }
+}
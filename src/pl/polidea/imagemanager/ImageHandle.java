@@ -0,0 +1,45 @@
+package pl.polidea.imagemanager;
+
+import android.graphics.Bitmap;
+
+/**
+ * Image handle. Keeps reference to loaded image, so image manager doesn't recycle nor reuse its bitmap while handle is
+ * held, even if image is unloaded or removed from cache meanwhile. Handle has to be released when image is not used
+ * anymore.
+ * 
+ * @see ImageManager#acquireImage(ImageKey, ImageManager.OnImageLoadedListener)
+ */
+public final class ImageHandle
+{
+    private final Bitmap bitmap;
+    private boolean released;
+
+    ImageHandle(final Bitmap bitmap)
+    {
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Get image bitmap. Bitmap is valid until handle is released.
+     * 
+     * @return image bitmap.
+     */
+    public Bitmap getBitmap()
+    {
+        return bitmap;
+    }
+
+    /**
+     * Release image handle. Releasing handle more than once has no effect.
+     */
+    public synchronized void release()
+    {
+        if (released)
+        {
+            return;
+        }
+
+        released = true;
+        ImageManager.releaseBitmap(bitmap);
+    }
+}
@@ -0,0 +1,348 @@
+package pl.polidea.imagemanager;
+
+import android.net.Uri;
+
+/**
+ * Image key. Immutable counterpart of {@link ImageManagerRequest}, constructed with {@link ImageKey.Builder}. Image
+ * manager identifies images with keys, so they can be safely kept in caches and queues. Key hash is computed once, so
+ * key built once and reused (ex. by view drawing the same image every frame) makes image lookups cheap and
+ * allocation-free.
+ * <p>
+ * Key identity consists of image source (file name, resource ID or URI) and decoding specification (sub-sampling and
+ * desired dimensions) only. Preview, strong cache and priority are loading options, so requests differing only in
+ * them share the same cached image.
+ * 
+ * @see ImageManager#getImage(ImageKey, ImageManager.OnImageLoadedListener)
+ */
+public final class ImageKey
+{
+
+    /**
+     * Image key builder. Builder options are the same as image request options.
+     */
+    public static final class Builder
+    {
+        private final ImageManagerRequest req;
+
+        /**
+         * Create builder of unspecified image key.
+         */
+        public Builder()
+        {
+            req = new ImageManagerRequest();
+        }
+
+        /**
+         * Create builder of image key with image request options.
+         * 
+         * @param req
+         *            image request.
+         */
+        public Builder(final ImageManagerRequest req)
+        {
+            this.req = new ImageManagerRequest(req);
+        }
+
+        /**
+         * Create builder of image key with other image key options.
+         * 
+         * @param key
+         *            image key.
+         */
+        public Builder(final ImageKey key)
+        {
+            this(key.req);
+        }
+
+        /**
+         * Set image from file system. Resource ID and URI should be unset.
+         * 
+         * @param filename
+         *            image file name in file system or NULL.
+         * @return this builder.
+         */
+        public Builder setFilename(final String filename)
+        {
+            req.filename = filename;
+            return this;
+        }
+
+        /**
+         * Set image from resources. File name and URI should be unset.
+         * 
+         * @param resId
+         *            image resource ID or -1.
+         * @return this builder.
+         */
+        public Builder setResId(final int resId)
+        {
+            req.resId = resId;
+            return this;
+        }
+
+        /**
+         * Set image from URI. File name and resource ID should be unset.
+         * 
+         * @param uri
+         *            image URI or NULL.
+         * @return this builder.
+         */
+        public Builder setUri(final Uri uri)
+        {
+            req.uri = uri;
+            return this;
+        }
+
+        /**
+         * Set sub-sampling value. Sub-sampling is part of key identity.
+         * 
+         * @param subsample
+         *            sub-sampling value, 1 means no sub-sampling.
+         * @return this builder.
+         */
+        public Builder setSubsample(final int subsample)
+        {
+            req.subsample = subsample;
+            return this;
+        }
+
+        /**
+         * Set desired image dimensions, image is loaded rescaled to them. Dimensions are part of key identity.
+         * 
+         * @param width
+         *            desired image width or -1.
+         * @param height
+         *            desired image height or -1.
+         * @return this builder.
+         */
+        public Builder setDimensions(final int width, final int height)
+        {
+            req.width = width;
+            req.height = height;
+            return this;
+        }
+
+        /**
+         * Enable/disable low-quality preview shown until full image is loaded. Preview is not part of key identity.
+         * 
+         * @param preview
+         *            enable/disable image preview.
+         * @return this builder.
+         */
+        public Builder setPreview(final boolean preview)
+        {
+            req.preview = preview;
+            return this;
+        }
+
+        /**
+         * Enable/disable keeping image with strong cache. Strong cache is not part of key identity.
+         * 
+         * @param strong
+         *            enable/disable keeping image with strong cache.
+         * @return this builder.
+         */
+        public Builder setStrong(final boolean strong)
+        {
+            req.strong = strong;
+            return this;
+        }
+
+        /**
+         * Set loading priority. Priority is not part of key identity.
+         * 
+         * @param priority
+         *            image loading priority.
+         * @return this builder.
+         */
+        public Builder setPriority(final int priority)
+        {
+            req.priority = priority;
+            return this;
+        }
+
+        /**
+         * Build image key.
+         * 
+         * @return image key with builder options.
+         */
+        public ImageKey build()
+        {
+            return new ImageKey(req);
+        }
+    }
+
+    final ImageManagerRequest req;
+    private final int hash;
+
+    private ImageKey(final ImageManagerRequest req)
+    {
+        this.req = new ImageManagerRequest(req);
+
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((req.filename == null) ? 0 : req.filename.hashCode());
+        result = prime * result + req.resId;
+        result = prime * result + ((req.uri == null) ? 0 : req.uri.hashCode());
+        result = prime * result + req.subsample;
+        result = prime * result + req.width;
+        result = prime * result + req.height;
+        this.hash = result;
+    }
+
+    /**
+     * Get image key for image request.
+     * 
+     * @param req
+     *            image request.
+     * @return image key with image request options.
+     */
+    public static ImageKey of(final ImageManagerRequest req)
+    {
+        return new ImageKey(req);
+    }
+
+    /**
+     * Get image request with image key options.
+     * 
+     * @return new image request.
+     */
+    public ImageManagerRequest toRequest()
+    {
+        return new ImageManagerRequest(req);
+    }
+
+    /**
+     * Get image file name in file system.
+     * 
+     * @return file name or NULL if image is not from file system.
+     */
+    public String getFilename()
+    {
+        return req.filename;
+    }
+
+    /**
+     * Get image resource ID.
+     * 
+     * @return resource ID or -1 if image is not from resources.
+     */
+    public int getResId()
+    {
+        return req.resId;
+    }
+
+    /**
+     * Get image URI.
+     * 
+     * @return URI or NULL if image is not from URI.
+     */
+    public Uri getUri()
+    {
+        return req.uri;
+    }
+
+    /**
+     * Get sub-sampling value.
+     * 
+     * @return sub-sampling value, 1 means no sub-sampling.
+     */
+    public int getSubsample()
+    {
+        return req.subsample;
+    }
+
+    /**
+     * Get desired image width.
+     * 
+     * @return desired width or -1 if it's not specified.
+     */
+    public int getWidth()
+    {
+        return req.width;
+    }
+
+    /**
+     * Get desired image height.
+     * 
+     * @return desired height or -1 if it's not specified.
+     */
+    public int getHeight()
+    {
+        return req.height;
+    }
+
+    /**
+     * Check if image is shown with low-quality preview until it's loaded. Preview is not part of key identity.
+     * 
+     * @return true if preview is enabled, false otherwise.
+     */
+    public boolean isPreview()
+    {
+        return req.preview;
+    }
+
+    /**
+     * Check if image is kept with strong cache. Strong cache is not part of key identity.
+     * 
+     * @return true if image is kept with strong cache, false otherwise.
+     */
+    public boolean isStrong()
+    {
+        return req.strong;
+    }
+
+    /**
+     * Get loading priority. Priority is not part of key identity.
+     * 
+     * @return loading priority.
+     */
+    public int getPriority()
+    {
+        return req.priority;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof ImageKey))
+        {
+            return false;
+        }
+        final ImageKey other = (ImageKey) obj;
+        return hash == other.hash && isSameSource(req, other.req) && req.subsample == other.req.subsample
+                && req.width == other.req.width && req.height == other.req.height;
+    }
+
+    /**
+     * Check if image requests have the same image source.
+     * 
+     * @param req1
+     *            first image request.
+     * @param req2
+     *            second image request.
+     * @return true if both requests have the same file name, resource ID and URI, false otherwise.
+     */
+    static boolean isSameSource(final ImageManagerRequest req1, final ImageManagerRequest req2)
+    {
+        return (req1.filename == null ? req2.filename == null : req1.filename.equals(req2.filename))
+                && req1.resId == req2.resId && (req1.uri == null ? req2.uri == null : req1.uri.equals(req2.uri));
+    }
+
+    @Override
+    public String toString()
+    {
+        return req.toString();
+    }
+
+}
@@ -1,23 +1,38 @@
 package pl.polidea.imagemanager;
 
-import java.io.File;
-import java.io.InputStream;
-import java.lang.ref.WeakReference;
-import java.net.URL;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import android.app.ActivityManager;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.Point;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
+import pl.polidea.imagemanager.PendingImage.QueueEntry;
 
 /**
  * Image manager. Manager provides way to load image resources asynchronously with many options like:
@@ -46,169 +61,1118 @@ public final class ImageManager
     private static final String TAG = ImageManager.class.getSimpleName();
 
     /**
-     * Image load thread helper class.
+     * Image tile size in pixels. Tiles are square, tiles at image right and bottom edges can be smaller.
      * 
-     * @author karooolek
+     * @see #getTile(ImageManagerRequest, int, int, int, OnImageLoadedListener)
      */
-    private static final class LoadThread extends Thread
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Image loaded listener. Notified on main thread when image requested asynchronously is loaded.
+     * 
+     * @see ImageManager#getImage(ImageManagerRequest, OnImageLoadedListener)
+     */
+    public interface OnImageLoadedListener
+    {
+        /**
+         * Called on main thread when requested image is loaded. If preview was requested, this is called for preview
+         * first and then again for full image. Loaded image bitmap can be reused by image manager after it's removed
+         * from cache, so it should be acquired with {@link ImageManager#acquireImage(ImageKey, OnImageLoadedListener)}
+         * to be kept.
+         * 
+         * @param req
+         *            loaded image request.
+         * @param bmp
+         *            loaded image or NULL if image couldn't be loaded.
+         */
+        void onImageLoaded(ImageManagerRequest req, Bitmap bmp);
+    }
+
+    /**
+     * Metrics listener. Notified periodically on main thread with image manager metrics.
+     * 
+     * @see ImageManager#setOnMetricsListener(OnMetricsListener, long)
+     */
+    public interface OnMetricsListener
+    {
+        /**
+         * Called periodically on main thread with current image manager metrics.
+         * 
+         * @param metrics
+         *            image manager metrics snapshot.
+         */
+        void onMetrics(ImageManagerMetrics metrics);
+    }
+
+    /**
+     * Image fetch task helper class. Each queue entry in fetching queue is paired with one fetch task, which fetches
+     * the next pending image from fetching queue.
+     */
+    private static final class FetchTask implements Runnable
     {
-        private LoadThread()
+        @Override
+        public void run()
         {
-            super(TAG);
+            final PendingImage pending = poll(fetchQueue);
+            if (pending != null && !holdIfPaused(pending))
+            {
+                pending.recordQueueWait();
+                pending.fetch();
+            }
         }
+    }
 
+    /**
+     * Image load task helper class. Each queue entry in loading queue is paired with one load task, which loads the
+     * next pending image from loading queue.
+     */
+    private static final class LoadTask implements Runnable
+    {
         @Override
         public void run()
         {
-            if (logging)
+            final PendingImage pending = poll(loadQueue);
+            if (pending != null && !holdIfPaused(pending))
             {
-                Log.d(TAG, "Image loading thread started");
+                pending.recordQueueWait();
+                pending.run();
             }
+        }
+    }
 
-            // loop
-            final boolean exit = false;
-            while (!exit)
-            {
-                // get loading request
-                ImageManagerRequest req = null;
-                try
-                {
-                    loadingReqs.add(req = loadQueue.take());
-                }
-                catch (final InterruptedException e)
-                {
-                    break;
-                }
+    /**
+     * Memory trimming helper class. Trims image manager memory when system asks application to.
+     */
+    private static final class TrimCallbacks implements ComponentCallbacks2
+    {
+        @Override
+        public void onTrimMemory(final int level)
+        {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory()
+        {
+            trimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(final Configuration newConfig)
+        {
+            // nothing
+        }
+    }
+
+    /**
+     * Image load thread factory helper class. Creates named loading threads running with configured priority.
+     */
+    private static final class LoadThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String name;
+        private final int priority;
+
+        LoadThreadFactory(final String name, final int priority)
+        {
+            this.name = name;
+            this.priority = priority;
+        }
 
-                try
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+            return new Thread(TAG + " " + name + " #" + count.incrementAndGet())
+            {
+                @Override
+                public void run()
                 {
-                    // load bitmap
-                    final Bitmap bmp = loadImage(req, false);
+                    Process.setThreadPriority(priority);
 
-                    // remove preview image
-                    if (isImageLoaded(req))
+                    if (logging)
                     {
-                        final Bitmap prevbmp = getLoadedBitmap(req);
-                        if (prevbmp != null && !prevbmp.isRecycled())
-                        {
-                            if (logging)
-                            {
-                                Log.d(TAG, "Unloading preview image " + req);
-                            }
-
-                            prevbmp.recycle();
-
-                            if (logging)
-                            {
-                                Log.d(TAG, "Preview image " + req + " unloaded");
-                            }
-                        }
+                        Log.d(TAG, "Image loading thread " + getName() + " started");
                     }
 
-                    // save bitmap
-                    loaded.put(req, new LoadedBitmap(bmp, req.strong));
-                }
-                catch (final OutOfMemoryError err)
-                {
-                    // oh noes! we have no memory for image
+                    r.run();
+
                     if (logging)
                     {
-                        Log.e(TAG, "Error while loading full image " + req + ". Out of memory.");
-                        logImageManagerStatus();
+                        Log.d(TAG, "Image loading thread " + getName() + " ended");
                     }
-
-                    cleanUp();
                 }
+            };
+        }
+    }
 
-                loadingReqs.remove(req);
-            } // while(!exit)
+    static final Handler HANDLER = new Handler(Looper.getMainLooper());
+    private static final int MAX_FAILED_SOURCES = 256;
 
-            if (logging)
+    private static Application application;
+    private static Application trimCallbacksApplication;
+    static ImageManagerConfiguration config = new ImageManagerConfiguration();
+    private static Executor loader;
+    private static Executor fetcher;
+    private static long start;
+    private static boolean logging = false;
+    private static BlockingQueue<QueueEntry> fetchQueue = new PriorityBlockingQueue<QueueEntry>();
+    private static BlockingQueue<QueueEntry> loadQueue = new PriorityBlockingQueue<QueueEntry>();
+    private static ConcurrentMap<ImageKey, PendingImage> inFlight = new ConcurrentHashMap<ImageKey, PendingImage>();
+    static ConcurrentMap<ImageKey, PendingImage> previewsInFlight =
+            new ConcurrentHashMap<ImageKey, PendingImage>();
+    private static boolean paused;
+    private static final List<PendingImage> held = new ArrayList<PendingImage>();
+    static ConcurrentMap<ImageKey, PendingImage> diskPrefetchesInFlight =
+            new ConcurrentHashMap<ImageKey, PendingImage>();
+    static ConcurrentMap<TileKey, PendingImage> tilesInFlight = new ConcurrentHashMap<TileKey, PendingImage>();
+    static final FailedSources failedSources = new FailedSources(MAX_FAILED_SOURCES);
+    static final Metrics metrics = new Metrics();
+    private static volatile OnMetricsListener metricsListener;
+    private static long metricsInterval;
+    private static final Runnable METRICS_REPORTER = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            final OnMetricsListener listener = metricsListener;
+            if (listener != null)
             {
-                Log.d(TAG, "Image loading thread ended");
+                listener.onMetrics(getMetrics());
+                HANDLER.postDelayed(this, metricsInterval);
             }
         }
+    };
+    static BitmapPool pool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+    static BitmapCache loaded = new BitmapCache(Runtime.getRuntime().maxMemory() / 8, pool);
+    static final DiskCaches diskCaches = new DiskCaches(metrics);
+    static final ImageDecoder decoder = new ImageDecoder(loaded, pool, diskCaches, metrics);
+
+    private ImageManager()
+    {
+        // unreachable private constructor
     }
 
     /**
-     * Loaded bitmap helper class.
+     * Initialize image manager for application.
      * 
-     * @author karooolek
+     * @param application
+     *            application context.
      */
-    private static final class LoadedBitmap
+    public static void init(final Application application)
     {
-        private final WeakReference<Bitmap> weakBitmap;
-        private final Bitmap bitmap;
+        ImageManager.application = application;
+        diskCaches.setApplication(application);
+        decoder.configure(application, config);
+        setCacheSizes();
+        registerTrimCallbacks();
+    }
 
-        LoadedBitmap(final Bitmap bitmap, final boolean strong)
+    /**
+     * Initialize image manager for application with custom configuration. If image loading has already started,
+     * current loading threads finish loading images queued so far and are shut down, new loading threads are started
+     * with new configuration when needed.
+     * 
+     * @param application
+     *            application context.
+     * @param config
+     *            image manager configuration.
+     * @see pl.polidea.imagemanager.ImageManagerConfiguration
+     */
+    public static void init(final Application application, final ImageManagerConfiguration config)
+    {
+        ImageManager.application = application;
+        synchronized (ImageManager.class)
         {
-            this.bitmap = strong ? bitmap : null;
-            this.weakBitmap = strong ? null : new WeakReference<Bitmap>(bitmap);
+            // queued images are not dropped, current threads finish them
+            shutDownLoader(false);
+            ImageManager.config = config == null ? new ImageManagerConfiguration() : config;
+            diskCaches.configure(application, ImageManager.config);
+            decoder.configure(application, ImageManager.config);
+            failedSources.clear();
         }
+        setCacheSizes();
+        registerTrimCallbacks();
 
-        Bitmap getBitmap()
+        if (logging)
         {
-            return weakBitmap == null ? bitmap : weakBitmap.get();
+            Log.d(TAG, "Image manager configured " + ImageManager.config);
         }
     }
 
-    private static Application application;
-    private static long start;
-    private static boolean logging = false;
-    private static BlockingQueue<ImageManagerRequest> loadQueue = new LinkedBlockingQueue<ImageManagerRequest>();
-    private static List<ImageManagerRequest> loadingReqs = new ArrayList<ImageManagerRequest>();
-    private static Map<ImageManagerRequest, LoadedBitmap> loaded = new ConcurrentHashMap<ImageManagerRequest, LoadedBitmap>();
+    /**
+     * Shut down image manager loading threads. All queued image requests are dropped. Loading threads are started
+     * again on next image request.
+     */
+    public static synchronized void shutDown()
+    {
+        if (logging)
+        {
+            Log.d(TAG, "Image manager shut down");
+        }
 
-    private ImageManager()
+        fetchQueue.clear();
+        loadQueue.clear();
+        synchronized (held)
+        {
+            held.clear();
+        }
+        for (final PendingImage pending : inFlight.values())
+        {
+            pending.cancel(true);
+        }
+        for (final PendingImage pending : previewsInFlight.values())
+        {
+            pending.cancel(true);
+        }
+        for (final PendingImage pending : tilesInFlight.values())
+        {
+            pending.cancel(true);
+        }
+        for (final PendingImage pending : diskPrefetchesInFlight.values())
+        {
+            pending.cancel(true);
+        }
+        shutDownLoader(true);
+    }
+
+    private static void setCacheSizes()
     {
-        // unreachable private constructor
+        // application memory class
+        long memoryClass = Runtime.getRuntime().maxMemory();
+        if (application != null)
+        {
+            final ActivityManager am = (ActivityManager) application.getSystemService(Context.ACTIVITY_SERVICE);
+            memoryClass = am.getMemoryClass() * 1024L * 1024L;
+        }
+
+        // use 1/8 of memory class for cache by default
+        final long cacheSize = config.memoryCacheSize > 0 ? config.memoryCacheSize : memoryClass / 8;
+        if (cacheSize != loaded.maxSize())
+        {
+            loaded.setMaxSize(cacheSize);
+
+            if (logging)
+            {
+                Log.d(TAG, "Memory cache size set to " + cacheSize / 1024 + "[kB]");
+            }
+        }
+
+        // use 1/16 of memory class for pool by default
+        final long poolSize = config.bitmapPoolSize == 0 ? memoryClass / 16 : Math.max(0, config.bitmapPoolSize);
+        if (poolSize != pool.maxSize())
+        {
+            pool.setMaxSize(poolSize);
+
+            if (logging)
+            {
+                Log.d(TAG, "Bitmap pool size set to " + poolSize / 1024 + "[kB]");
+            }
+        }
+    }
+
+    private static synchronized void registerTrimCallbacks()
+    {
+        if (application == null || application == trimCallbacksApplication
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+        {
+            return;
+        }
+
+        application.registerComponentCallbacks(new TrimCallbacks());
+        trimCallbacksApplication = application;
+    }
+
+    private static void shutDownLoader(final boolean now)
+    {
+        shutDownExecutor(loader, config.loaderExecutor, now);
+        loader = null;
+        shutDownExecutor(fetcher, config.fetcherExecutor, now);
+        fetcher = null;
+    }
+
+    private static void shutDownExecutor(final Executor executor, final Executor configured, final boolean now)
+    {
+        // executors from configuration are not ours to shut down
+        if (!(executor instanceof ExecutorService) || executor == configured)
+        {
+            return;
+        }
+
+        // tasks already submitted keep their pending images going unless dropped right away
+        if (now)
+        {
+            ((ExecutorService) executor).shutdownNow();
+        }
+        else
+        {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private static synchronized Executor getLoader()
+    {
+        // start loading threads lazily
+        if (loader == null)
+        {
+            loader = config.loaderExecutor != null ? config.loaderExecutor : createExecutor("loader",
+                    config.loaderThreads);
+        }
+        return loader;
+    }
+
+    private static synchronized Executor getFetcher()
+    {
+        // start fetching threads lazily
+        if (fetcher == null)
+        {
+            fetcher = config.fetcherExecutor != null ? config.fetcherExecutor : createExecutor("fetcher",
+                    config.fetcherThreads);
+        }
+        return fetcher;
+    }
+
+    private static Executor createExecutor(final String name, final int threads)
+    {
+        final int n = Math.max(1, threads);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(n, n, config.loaderKeepAliveTime,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new LoadThreadFactory(name,
+                        config.loaderThreadPriority));
+        if (config.loaderKeepAliveTime > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+        {
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        if (logging)
+        {
+            Log.d(TAG, "Starting " + n + " image " + name + " threads");
+        }
+
+        return executor;
+    }
+
+    private static boolean isImageLoaded(final ImageKey key)
+    {
+        return loaded.contains(key);
+    }
+
+    private static boolean isFullImageLoaded(final ImageKey key)
+    {
+        final LoadedBitmap limg = loaded.peek(key);
+        return limg != null && !limg.preview && limg.getBitmap() != null;
+    }
+
+    static boolean isUriImage(final ImageManagerRequest req)
+    {
+        return req.filename == null && req.resId < 0 && req.uri != null;
+    }
+
+    static ConcurrentMap<ImageKey, PendingImage> getInFlight(final boolean preview)
+    {
+        return preview ? previewsInFlight : inFlight;
     }
 
     /**
-     * Initialize image manager for application.
+     * Submit queue entry to fetching or loading queue.
      * 
-     * @param application
-     *            application context.
+     * @param entry
+     *            queue entry of pending image.
      */
-    public static void init(final Application application)
+    static void submit(final QueueEntry entry)
+    {
+        // each entry has its own task, so no entry is left in queue without task
+        if (entry.fetching)
+        {
+            fetchQueue.add(entry);
+            getFetcher().execute(new FetchTask());
+        }
+        else
+        {
+            loadQueue.add(entry);
+            getLoader().execute(new LoadTask());
+        }
+    }
+
+    private static PendingImage poll(final BlockingQueue<QueueEntry> queue)
+    {
+        // skip entries of requeued and dequeued pending images, their tasks have nothing to do
+        QueueEntry entry;
+        while ((entry = queue.poll()) != null)
+        {
+            if (entry.pending.claim(entry))
+            {
+                return entry.pending;
+            }
+        }
+        return null;
+    }
+
+    private static int countQueued(final BlockingQueue<QueueEntry> queue)
+    {
+        int n = 0;
+        for (final QueueEntry entry : queue)
+        {
+            if (entry.isQueued())
+            {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private static void queueImageLoad(final ImageKey key, final OnImageLoadedListener listener)
+    {
+        // failed recently, listener is not notified, so views don't request image again right away
+        if (isFailedSource(key.req))
+        {
+            return;
+        }
+
+        // images from uri have to be fetched whole anyway, so they have no preview
+        if (key.req.preview && !isUriImage(key.req) && !isImageLoaded(key))
+        {
+            queueImageLoad(key, true, listener);
+        }
+        queueImageLoad(key, false, listener);
+    }
+
+    private static void queueImageLoad(final ImageKey key, final boolean preview,
+            final OnImageLoadedListener listener)
+    {
+        final ConcurrentMap<ImageKey, PendingImage> pendings = getInFlight(preview);
+
+        // already loading, move to front of its priority
+        PendingImage pending = pendings.get(key);
+        if (pending != null)
+        {
+            pending.addListener(listener);
+            pending.requeue(key.req.priority);
+            return;
+        }
+
+        // share pending image with concurrent requests
+        pending = new PendingImage(key, preview);
+        pending.addListener(listener);
+        final PendingImage prevPending = pendings.putIfAbsent(key, pending);
+        if (prevPending != null)
+        {
+            prevPending.addListener(listener);
+            prevPending.requeue(key.req.priority);
+            return;
+        }
+
+        // loaded meanwhile
+        if (preview ? isImageLoaded(key) : isFullImageLoaded(key))
+        {
+            pendings.remove(key, pending);
+            pending.cancel(false);
+            if (listener != null)
+            {
+                notifyImageLoaded(listener, pending.req, getLoadedBitmap(key));
+            }
+            return;
+        }
+
+        if (logging)
+        {
+            Log.d(TAG, "Queuing " + (preview ? "preview" : "full") + " image " + key + " to load");
+        }
+        pending.queue();
+    }
+
+    private static void queueTileLoad(final TileKey tile, final OnImageLoadedListener listener)
+    {
+        // failed recently
+        if (isFailedSource(tile.req))
+        {
+            return;
+        }
+
+        // already loading, move to front of its priority
+        PendingImage pending = tilesInFlight.get(tile);
+        if (pending != null)
+        {
+            pending.addListener(listener);
+            pending.requeue(tile.req.priority);
+            return;
+        }
+
+        // share pending tile with concurrent requests
+        pending = new PendingImage(tile);
+        pending.addListener(listener);
+        final PendingImage prevPending = tilesInFlight.putIfAbsent(tile, pending);
+        if (prevPending != null)
+        {
+            prevPending.addListener(listener);
+            prevPending.requeue(tile.req.priority);
+            return;
+        }
+
+        // loaded meanwhile
+        if (tile.sample > 0 ? loaded.contains(tile) : decoder.isRegionDecoderOpened(tile.source))
+        {
+            tilesInFlight.remove(tile, pending);
+            pending.cancel(false);
+            if (listener != null)
+            {
+                notifyImageLoaded(listener, tile.req, getLoadedBitmap(tile));
+            }
+            return;
+        }
+
+        if (logging)
+        {
+            Log.d(TAG, "Queuing tile " + tile + " to load");
+        }
+        pending.queue();
+    }
+
+    static void addFailedSource(final ImageManagerRequest req, final long timeout)
+    {
+        final String source = TileKey.sourceOf(req);
+        if (source == null || timeout <= 0)
+        {
+            return;
+        }
+
+        if (logging)
+        {
+            Log.d(TAG, "Image " + req + " failed, not loading it again for " + timeout + "[msec]");
+        }
+        failedSources.add(source, timeout);
+    }
+
+    private static boolean isFailedSource(final ImageManagerRequest req)
+    {
+        final String source = TileKey.sourceOf(req);
+        return source != null && failedSources.contains(source);
+    }
+
+    static void notifyImageLoaded(final OnImageLoadedListener listener, final ImageManagerRequest req,
+            final Bitmap bmp)
+    {
+        // listener gets its own copy, so image key can't be changed
+        final ImageManagerRequest loadedReq = new ImageManagerRequest(req);
+        HANDLER.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                listener.onImageLoaded(loadedReq, bmp);
+            }
+        });
+    }
+
+    static Bitmap getLoadedBitmap(final Object key)
+    {
+        final LoadedBitmap limg = loaded.peek(key);
+        return limg != null ? limg.getBitmap() : null;
+    }
+
+    /**
+     * Load image request. Loads synchronously image specified by request. Adds loaded image to cache.
+     * 
+     * @param req
+     *            image request
+     * @param preview
+     *            loading preview or not.
+     * @return loaded image.
+     */
+    public static Bitmap loadImage(final ImageManagerRequest req, final boolean preview)
+    {
+        return decoder.loadImage(req, preview, new Options(), null);
+    }
+
+    /**
+     * Cancel loading image specified by image request. Queued request is dropped from loading queue. If image is being
+     * loaded already, decoding is aborted where possible and loaded image is discarded. Images already in cache are not
+     * affected.
+     * 
+     * @param req
+     *            image request.
+     */
+    public static void cancel(final ImageManagerRequest req)
+    {
+        // no request
+        if (req == null)
+        {
+            return;
+        }
+
+        cancel(ImageKey.of(req));
+    }
+
+    /**
+     * Cancel loading image specified by image key. This works as {@link #cancel(ImageManagerRequest)}.
+     * 
+     * @param key
+     *            image key.
+     */
+    public static void cancel(final ImageKey key)
+    {
+        // no key
+        if (key == null)
+        {
+            return;
+        }
+
+        cancel(key, true);
+        cancel(key, false);
+    }
+
+    private static void cancel(final ImageKey key, final boolean preview)
+    {
+        final PendingImage pending = getInFlight(preview).remove(key);
+        if (pending == null)
+        {
+            return;
+        }
+
+        // drop queued request or abort loading request
+        final boolean queued = pending.dequeue();
+        pending.cancel(false);
+
+        if (logging)
+        {
+            Log.d(TAG, (preview ? "Preview" : "Full") + " image " + key + " loading "
+                    + (queued ? "cancelled" : "aborted"));
+        }
+    }
+
+    /**
+     * Cancel notifying image loaded listener about image specified by image request. Loading image is cancelled as
+     * with {@link #cancel(ImageManagerRequest)} when no other listener is waiting for image and image wasn't requested
+     * without listener. Image already in cache is treated as not displayed anymore and released first when memory is
+     * trimmed, until it's requested again.
+     * 
+     * @param req
+     *            image request.
+     * @param listener
+     *            image loaded listener.
+     */
+    public static void cancel(final ImageManagerRequest req, final OnImageLoadedListener listener)
+    {
+        // no request
+        if (req == null)
+        {
+            return;
+        }
+
+        cancel(ImageKey.of(req), listener);
+    }
+
+    /**
+     * Cancel notifying image loaded listener about image specified by image key. This works as
+     * {@link #cancel(ImageManagerRequest, OnImageLoadedListener)}.
+     * 
+     * @param key
+     *            image key.
+     * @param listener
+     *            image loaded listener.
+     */
+    public static void cancel(final ImageKey key, final OnImageLoadedListener listener)
+    {
+        // no key
+        if (key == null)
+        {
+            return;
+        }
+
+        // image not displayed anymore
+        loaded.setBackground(key);
+
+        final PendingImage pendingPreview = previewsInFlight.get(key);
+        if (pendingPreview != null && pendingPreview.removeListener(listener))
+        {
+            cancel(key, true);
+        }
+        final PendingImage pending = inFlight.get(key);
+        if (pending != null && pending.removeListener(listener))
+        {
+            cancel(key, false);
+        }
+    }
+
+    /**
+     * Cancel notifying image loaded listener about all tiles of image specified by image request. Loading tile is
+     * cancelled when no other listener is waiting for it and it wasn't requested without listener.
+     * 
+     * @param req
+     *            image request.
+     * @param listener
+     *            image loaded listener.
+     * @see #getTile(ImageManagerRequest, int, int, int, OnImageLoadedListener)
+     */
+    public static void cancelTiles(final ImageManagerRequest req, final OnImageLoadedListener listener)
+    {
+        // no request
+        final String source = req == null ? null : TileKey.sourceOf(req);
+        if (source == null)
+        {
+            return;
+        }
+
+        final Iterator<Map.Entry<TileKey, PendingImage>> it = tilesInFlight.entrySet().iterator();
+        while (it.hasNext())
+        {
+            final Map.Entry<TileKey, PendingImage> entry = it.next();
+            final PendingImage pending = entry.getValue();
+            if (source.equals(entry.getKey().source) && pending.removeListener(listener))
+            {
+                // drop queued tile or abort loading tile
+                it.remove();
+                pending.dequeue();
+                pending.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Unload image specified by image request and remove it from cache. Bitmap held with image handle is released when
+     * handle is released.
+     * 
+     * @param req
+     *            image request.
+     */
+    public static void unloadImage(final ImageManagerRequest req)
+    {
+        // no request
+        if (req == null)
+        {
+            return;
+        }
+
+        unloadImage(ImageKey.of(req));
+    }
+
+    /**
+     * Unload image specified by image key and remove it from cache.
+     * 
+     * @param key
+     *            image key.
+     */
+    public static void unloadImage(final ImageKey key)
+    {
+        // no key
+        if (key == null)
+        {
+            return;
+        }
+
+        if (logging)
+        {
+            Log.d(TAG, "Unloading image " + key);
+        }
+
+        unload(key);
+
+        if (logging)
+        {
+            Log.d(TAG, "Image " + key + " unloaded");
+        }
+    }
+
+    private static void unload(final Object key)
+    {
+        // bitmap acquired meanwhile is pooled when released
+        synchronized (loaded)
+        {
+            final LoadedBitmap limg = loaded.remove(key);
+            if (limg != null)
+            {
+                pool.put(limg);
+            }
+        }
+    }
+
+    /**
+     * Clean up image manager. Unloads all cached images.
+     */
+    public static synchronized void cleanUp()
+    {
+        final long t = System.currentTimeMillis();
+
+        if (logging)
+        {
+            Log.d(TAG, "Image manager clean up");
+        }
+
+        // unload all images and tiles
+        for (final Object key : loaded.keys())
+        {
+            unload(key);
+        }
+        pool.trimToSize(0);
+        decoder.closeRegionDecoders();
+
+        if (logging)
+        {
+            Log.d(TAG, "Image manager clean up finished, took " + (System.currentTimeMillis() - t) + "[msec]");
+            logImageManagerStatus();
+        }
+    }
+
+    /**
+     * Trim image manager memory. Releases part of cached images proportional to trim level: images not displayed
+     * anymore first, then previews, then least recently used full images. Image manager trims memory automatically on
+     * Android 4.0 and newer, this can be called from {@link android.app.Activity#onTrimMemory(int)} or
+     * {@link android.app.Activity#onLowMemory()} on older versions.
+     * 
+     * @param level
+     *            trim level, one of {@link ComponentCallbacks2} trim memory levels.
+     */
+    public static void trimMemory(final int level)
+    {
+        // part of memory to keep
+        final float keep;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        {
+            keep = 0.0f;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+        {
+            keep = 0.25f;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+        {
+            keep = 0.5f;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+        {
+            keep = 0.75f;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+        {
+            keep = 0.25f;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+        {
+            keep = 0.5f;
+        }
+        else
+        {
+            keep = 0.75f;
+        }
+
+        if (logging)
+        {
+            Log.d(TAG, "Trimming image manager memory, level " + level + ", keeping " + (int) (100 * keep) + "%");
+        }
+
+        // trim cache first, evicted images go to pool
+        loaded.trimToSize((long) (keep * loaded.size()));
+        pool.trimToSize((long) (keep * pool.size()));
+
+        if (logging)
+        {
+            logImageManagerStatus();
+        }
+    }
+
+    /**
+     * Check if image manager logging is enabled. By default logging is disabled.
+     * 
+     * @return true if image manager logging is enabled, false otherwise.
+     */
+    public static boolean isLoggingEnabled()
+    {
+        return logging;
+    }
+
+    /**
+     * Enable/disable image manager logging.
+     * 
+     * @param logging
+     *            enable/disable image manager logging.
+     */
+    public static void setLoggingEnabled(final boolean logging)
+    {
+        ImageManager.logging = logging;
+    }
+
+    /**
+     * Log image manager current status. Logs:
+     * <ul>
+     * <li>manager uptime in seconds
+     * <li>loaded images count and size
+     * <li>memory cache statistics
+     * <li>loading metrics
+     * </ul>
+     */
+    public static void logImageManagerStatus()
+    {
+        final float t = 0.001f * (System.currentTimeMillis() - start);
+
+        Log.d(TAG, "Uptime: " + t + "[s]");
+
+        // count loaded images
+        Log.d(TAG, "Loaded images: " + loaded.count());
+        Log.d(TAG, "Loaded images size: " + loaded.size() / 1024 + "[kB] of " + loaded.maxSize() / 1024 + "[kB]");
+        Log.d(TAG, "Memory cache hits: " + loaded.hitCount() + ", misses: " + loaded.missCount() + ", evictions: "
+                + loaded.evictionCount());
+        Log.d(TAG, "Pooled bitmaps size: " + pool.size() / 1024 + "[kB] of " + pool.maxSize() / 1024 + "[kB]");
+        Log.d(TAG, "Referenced bitmaps: " + pool.referencedCount());
+        diskCaches.logStatus(TAG);
+
+        // count queued images
+        Log.d(TAG, "Queued images: " + countQueued(loadQueue));
+        Log.d(TAG, "Failed image sources: " + failedSources.size());
+        Log.d(TAG, "Metrics: " + getMetrics());
+    }
+
+    /**
+     * Get image manager metrics. Metrics are counted since image manager start with atomic counters, so they can be
+     * kept enabled in production builds.
+     * 
+     * @return image manager metrics snapshot.
+     * @see pl.polidea.imagemanager.ImageManagerMetrics
+     */
+    public static ImageManagerMetrics getMetrics()
+    {
+        return new ImageManagerMetrics(metrics, loaded, countQueued(fetchQueue), countQueued(loadQueue));
+    }
+
+    /**
+     * Set metrics listener. Listener is notified on main thread with image manager metrics every given interval,
+     * until it's replaced or removed. This should be called on main thread.
+     * 
+     * @param listener
+     *            metrics listener or NULL to remove current listener.
+     * @param interval
+     *            notification interval in milliseconds.
+     * @see #getMetrics()
+     */
+    public static void setOnMetricsListener(final OnMetricsListener listener, final long interval)
+    {
+        HANDLER.removeCallbacks(METRICS_REPORTER);
+        metricsInterval = Math.max(1, interval);
+        metricsListener = listener;
+        if (listener != null)
+        {
+            HANDLER.postDelayed(METRICS_REPORTER, metricsInterval);
+        }
+    }
+
+    /**
+     * Get memory cache size.
+     * 
+     * @return size of all loaded images in bytes.
+     */
+    public static long getMemoryCacheSize()
+    {
+        return loaded.size();
+    }
+
+    /**
+     * Get memory cache maximum size. When exceeded, least recently used images are removed from cache.
+     * 
+     * @return memory cache maximum size in bytes.
+     * @see pl.polidea.imagemanager.ImageManagerConfiguration#memoryCacheSize
+     */
+    public static long getMemoryCacheMaxSize()
+    {
+        return loaded.maxSize();
+    }
+
+    /**
+     * Get memory cache hits count.
+     * 
+     * @return number of requested images found in memory cache.
+     */
+    public static long getMemoryCacheHitCount()
     {
-        ImageManager.application = application;
+        return loaded.hitCount();
     }
 
-    private static boolean isImageLoaded(final ImageManagerRequest req)
+    /**
+     * Get memory cache misses count.
+     * 
+     * @return number of requested images not found in memory cache.
+     */
+    public static long getMemoryCacheMissCount()
     {
-        return loaded.containsKey(req);
+        return loaded.missCount();
     }
 
-    private static boolean isImageLoading(final ImageManagerRequest req)
+    /**
+     * Get memory cache evictions count.
+     * 
+     * @return number of images removed from memory cache to keep it within maximum size.
+     */
+    public static long getMemoryCacheEvictionCount()
     {
-        return loadQueue.contains(req) || loadingReqs.contains(req);
+        return loaded.evictionCount();
     }
 
-    private static void queueImageLoad(final ImageManagerRequest req)
+    /**
+     * Get size of image specified by image request.
+     * 
+     * @param req
+     *            image request.
+     * @return image dimensions.
+     */
+    public static Point getImageSize(final ImageManagerRequest req)
     {
-        if (logging)
+        final Options opts = new Options();
+        opts.inJustDecodeBounds = true;
+        if (req.filename != null)
+        {
+            BitmapFactory.decodeFile(req.filename, opts);
+        }
+        if (req.resId >= 0)
+        {
+            BitmapFactory.decodeResource(application.getResources(), req.resId, opts);
+        }
+        if (req.uri != null)
         {
-            Log.d(TAG, "Queuing image " + req + " to load");
+            try
+            {
+                final byte[] data = diskCaches.fetch(req, null, 0);
+                BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            }
+            catch (final IOException e)
+            {
+                // nothing
+            }
         }
-        loadQueue.add(req);
+        return new Point(opts.outWidth, opts.outHeight);
     }
 
-    private static Bitmap getLoadedBitmap(final ImageManagerRequest req)
+    /**
+     * Get image specified by image request. This returns image as currently available in manager, which means:
+     * <ul>
+     * <li>not loaded at all: NULL - no image
+     * <li>loaded preview
+     * <li>loaded full
+     * </ul>
+     * If full image is not available in cache, image request is posted to asynchronous loading and will be available
+     * soon. Previews are loaded asynchronously too, ahead of all full images, so this never blocks. Images from URI
+     * have no preview. Requests are loaded by priority, most recently requested first, so requesting image again moves
+     * it ahead of older requests. All image options are specified in image request.
+     * 
+     * @param req
+     *            image request.
+     * @return image as currently available in manager (preview/full) or NULL if it's not available at all.
+     * @see pl.polidea.imagemanager.ImageManagerRequest
+     */
+    public static Bitmap getImage(final ImageManagerRequest req)
     {
-        return isImageLoaded(req) ? loaded.get(req).getBitmap() : null;
+        return getImage(req, null);
     }
 
     /**
-     * Load image request. Loads synchronously image specified by request. Adds loaded image to cache.
+     * Get image specified by image request and get notified when it's loaded. This works as
+     * {@link #getImage(ImageManagerRequest)}, but if full image is not available in cache, listener is notified on main
+     * thread as soon as it's loaded.
      * 
      * @param req
-     *            image request
-     * @param preview
-     *            loading preview or not.
-     * @return loaded image.
+     *            image request.
+     * @param listener
+     *            image loaded listener or NULL.
+     * @return image as currently available in manager (preview/full) or NULL if it's not available at all.
+     * @see #getImage(ImageManagerRequest)
+     * @see #cancel(ImageManagerRequest, OnImageLoadedListener)
      */
-    public static Bitmap loadImage(final ImageManagerRequest req, final boolean preview)
+    public static Bitmap getImage(final ImageManagerRequest req, final OnImageLoadedListener listener)
     {
         // no request
         if (req == null)
@@ -216,342 +1180,444 @@ public final class ImageManager
             return null;
         }
 
-        if (logging)
+        return getImage(ImageKey.of(req), listener);
+    }
+
+    /**
+     * Get image specified by image key and get notified when it's loaded. This works as
+     * {@link #getImage(ImageManagerRequest, OnImageLoadedListener)}, but image key built once can be reused, so image
+     * lookup is cheaper and doesn't allocate memory. Returned bitmap is never reused nor recycled by image manager, as
+     * it may be used for any time, it's left for GC when removed from cache. Image being drawn should rather be
+     * acquired with {@link #acquireImage(ImageKey, OnImageLoadedListener)}, so its bitmap can be reused.
+     * 
+     * @param key
+     *            image key.
+     * @param listener
+     *            image loaded listener or NULL.
+     * @return image as currently available in manager (preview/full) or NULL if it's not available at all.
+     * @see #cancel(ImageKey, OnImageLoadedListener)
+     */
+    public static Bitmap getImage(final ImageKey key, final OnImageLoadedListener listener)
+    {
+        return getImage(key, listener, false);
+    }
+
+    private static Bitmap getImage(final ImageKey key, final OnImageLoadedListener listener, final boolean acquire)
+    {
+        // no key
+        if (key == null)
         {
-            Log.d(TAG, "Loading " + (preview ? "preview" : "full") + " image " + req);
+            return null;
         }
 
+        // look for bitmap in already loaded resources, acquired before it can be unloaded
         Bitmap bmp = null;
-
-        // loading options
-        final Options opts = new Options();
-
-        // sub-sampling options
-        opts.inSampleSize = (preview ? 8 : 1) * req.subsample;
-
-        // load from filename
-        if (req.filename != null)
+        boolean preview = false;
+        synchronized (loaded)
         {
-            final File file = new File(req.filename);
-            if (!file.exists() || file.isDirectory())
+            final LoadedBitmap limg = loaded.get(key);
+            if (limg != null)
             {
-                if (logging)
-                {
-                    Log.e(TAG, "Error while loading image " + req + ". File does not exist.");
-                }
-                return null;
+                bmp = limg.getBitmap();
             }
 
-            bmp = BitmapFactory.decodeFile(req.filename, opts);
-            if (bmp == null && logging)
+            // preview not wanted
+            if (bmp != null && limg.preview && !key.req.preview)
             {
-                Log.e(TAG, "Error while decoding image from file " + req.filename);
+                bmp = null;
             }
-        }
 
-        // load from resources
-        else if (req.resId >= 0)
-        {
-            bmp = BitmapFactory.decodeResource(application.getResources(), req.resId, opts);
-            if (bmp == null && logging)
+            if (bmp != null)
             {
-                Log.e(TAG, "Error while decoding image from resources id=" + req.resId);
-            }
-        }
+                preview = limg.preview;
 
-        // load from uri
-        else if (req.uri != null)
-        {
-            try
-            {
-                final InputStream is = new URL(req.uri.toString()).openStream();
-                bmp = BitmapFactory.decodeStream(is, null, opts);
-                is.close();
-                if (bmp == null && logging)
+                // bitmap handed out without handle is never reused
+                if (acquire)
                 {
-                    Log.e(TAG, "Error while decoding image from uri " + req.uri);
+                    pool.acquire(bmp);
                 }
-            }
-            catch (final Exception e)
-            {
-                if (logging)
+                else
                 {
-                    Log.e(TAG, "Error while decoding image from uri " + req.uri);
+                    limg.shared = true;
+                }
+
+                // image shared with weak cache requests is kept strongly when requested so
+                if (key.req.strong && !limg.isStrong())
+                {
+                    loaded.put(key, bmp, true, preview);
                 }
             }
         }
 
-        // error while decoding
-        if (bmp == null)
+        // full bitmap found
+        if (bmp != null && !preview)
         {
-            return null;
+            return bmp;
+        }
+
+        // add preview and full image to loading queue, outside of cache lock as it may open caches
+        queueImageLoad(key, listener);
+
+        return bmp;
+    }
+
+    /**
+     * Forget images which failed to load. Images which failed to load are not loaded again for
+     * {@link ImageManagerConfiguration#failedImageTimeout}, this allows loading them again right away (ex. when network
+     * connection is back).
+     */
+    public static void clearFailedImages()
+    {
+        failedSources.clear();
+    }
+
+    /**
+     * Pause image loading. While paused, only images already in cache are available, images requested meanwhile and
+     * images queued for loading are held until loading is resumed. Images being decoded already are not affected. This
+     * is useful when images are requested just for a moment (ex. during list fling).
+     * 
+     * @see #resume()
+     * @see pl.polidea.imagemanager.PauseOnScrollListener
+     */
+    public static void pause()
+    {
+        synchronized (held)
+        {
+            if (logging && !paused)
+            {
+                Log.d(TAG, "Image loading paused");
+            }
+            paused = true;
         }
+    }
 
-        // rescaling
-        if (!preview && (req.width > 0 && req.height > 0))
+    /**
+     * Resume image loading. Held images are queued again, except for ones which were cancelled meanwhile (ex. by views
+     * detached from window or showing other image).
+     * 
+     * @see #pause()
+     */
+    public static void resume()
+    {
+        final List<PendingImage> resumed;
+        synchronized (held)
         {
-            final Bitmap sBmp = Bitmap.createScaledBitmap(bmp, req.width, req.height, true);
-            if (sBmp != bmp)
+            if (!paused)
             {
-                bmp.recycle();
-                bmp = sBmp;
+                return;
             }
+            paused = false;
+            resumed = new ArrayList<PendingImage>(held);
+            held.clear();
         }
 
         if (logging)
         {
-            Log.d(TAG, (preview ? "Preview" : "Full") + " image " + req + " loaded");
+            Log.d(TAG, "Image loading resumed, " + resumed.size() + " images held");
         }
 
-        return bmp;
+        for (final PendingImage pending : resumed)
+        {
+            if (!pending.isCancelled())
+            {
+                pending.queue();
+            }
+        }
     }
 
     /**
-     * Unload image specified by image request and remove it from cache.
+     * Check if image loading is paused.
      * 
-     * @param req
-     *            image request.
+     * @return true if image loading is paused, false otherwise.
      */
-    public static void unloadImage(final ImageManagerRequest req)
+    public static boolean isPaused()
     {
-        if (logging)
-        {
-            Log.d(TAG, "Unloading image " + req);
-        }
-
-        final Bitmap bmp = getLoadedBitmap(req);
-        if (bmp != null)
+        synchronized (held)
         {
-            bmp.recycle();
+            return paused;
         }
-        loaded.remove(req);
+    }
 
-        if (logging)
+    static boolean holdIfPaused(final PendingImage pending)
+    {
+        synchronized (held)
         {
-            Log.d(TAG, "Image " + req + " unloaded");
+            // cancelled images are not needed anymore
+            if (paused && !pending.isCancelled())
+            {
+                held.add(pending);
+            }
+            return paused;
         }
     }
 
     /**
-     * Clean up image manager. Unloads all cached images.
+     * Prefetch images specified by image requests to memory cache. Images are loaded asynchronously with lowest
+     * priority, after all requested images. Prefetched images are released first when memory is trimmed, until they're
+     * requested. This can be used to warm cache with images which will be requested soon (ex. next page of list).
+     * 
+     * @param reqs
+     *            image requests.
+     * @see #prefetch(Collection, boolean)
      */
-    public static synchronized void cleanUp()
+    public static void prefetch(final Collection<ImageManagerRequest> reqs)
     {
-        final long t = System.currentTimeMillis();
+        prefetch(reqs, false);
+    }
 
-        if (logging)
+    /**
+     * Prefetch images specified by image requests to memory cache or to disk cache only. Disk only prefetching fetches
+     * images from URI to disk cache and saves pre-scaled variants if variants cache is enabled, without keeping images
+     * in memory. Otherwise this works as {@link #prefetch(Collection)}.
+     * 
+     * @param reqs
+     *            image requests.
+     * @param diskOnly
+     *            prefetch images to disk cache only or not.
+     */
+    public static void prefetch(final Collection<ImageManagerRequest> reqs, final boolean diskOnly)
+    {
+        // no requests
+        if (reqs == null)
         {
-            Log.d(TAG, "Image manager clean up");
+            return;
         }
 
-        // unload all images
-        final Set<ImageManagerRequest> reqs = loaded.keySet();
         for (final ImageManagerRequest req : reqs)
         {
-            unloadImage(req);
+            if (req != null)
+            {
+                prefetch(ImageKey.of(req), diskOnly);
+            }
+        }
+    }
+
+    private static void prefetch(final ImageKey key, final boolean diskOnly)
+    {
+        final ConcurrentMap<ImageKey, PendingImage> pendings = diskOnly ? diskPrefetchesInFlight : inFlight;
+
+        // already loaded or loading or failed recently, disk caches are checked by loading threads
+        if (isFailedSource(key.req) || pendings.containsKey(key) || (!diskOnly && isFullImageLoaded(key)))
+        {
+            return;
+        }
+
+        // prefetched images can't be cancelled by removing listeners
+        final PendingImage pending = new PendingImage(key, true, diskOnly);
+        pending.addListener(null);
+        if (pendings.putIfAbsent(key, pending) != null)
+        {
+            return;
         }
 
         if (logging)
         {
-            Log.d(TAG, "Image manager clean up finished, took " + (System.currentTimeMillis() - t) + "[msec]");
-            logImageManagerStatus();
+            Log.d(TAG, "Queuing image " + key + " to prefetch" + (diskOnly ? " to disk" : ""));
         }
+        pending.queue();
     }
 
     /**
-     * Check if image manager logging is enabled. By default logging is disabled.
+     * Get image specified by image key and acquire handle to it. This works as
+     * {@link #getImage(ImageKey, OnImageLoadedListener)}, but image bitmap is not recycled nor reused by image manager
+     * until handle is released, even if image is unloaded or removed from cache meanwhile. Image being drawn should be
+     * held with handle, so image manager can release memory aggressively.
      * 
-     * @return true if image manager logging is enabled, false otherwise.
+     * @param key
+     *            image key.
+     * @param listener
+     *            image loaded listener or NULL.
+     * @return handle to image as currently available in manager (preview/full) or NULL if it's not available at all.
+     * @see pl.polidea.imagemanager.ImageHandle#release()
      */
-    public static boolean isLoggingEnabled()
+    public static ImageHandle acquireImage(final ImageKey key, final OnImageLoadedListener listener)
     {
-        return logging;
+        final Bitmap bmp = getImage(key, listener, true);
+        return bmp != null ? new ImageHandle(bmp) : null;
     }
 
     /**
-     * Enable/disable image manager logging.
+     * Get image specified by image key and acquire handle to it, unless it's already held with given handle. This
+     * works as {@link #acquireImage(ImageKey, OnImageLoadedListener)}, but drawing the same image again and again
+     * doesn't allocate memory.
      * 
-     * @param logging
-     *            enable/disable image manager logging.
+     * @param key
+     *            image key.
+     * @param listener
+     *            image loaded listener or NULL.
+     * @param handle
+     *            handle currently held or NULL.
+     * @return given handle if it holds image as currently available in manager, new handle to it otherwise or NULL if
+     *         it's not available at all.
      */
-    public static void setLoggingEnabled(final boolean logging)
+    static ImageHandle acquireImage(final ImageKey key, final OnImageLoadedListener listener,
+            final ImageHandle handle)
     {
-        ImageManager.logging = logging;
+        final Bitmap bmp = getImage(key, listener, true);
+        if (bmp == null)
+        {
+            return null;
+        }
+
+        // already held
+        if (handle != null && handle.getBitmap() == bmp)
+        {
+            pool.release(bmp);
+            return handle;
+        }
+        return new ImageHandle(bmp);
     }
 
     /**
-     * Log image manager current status. Logs:
-     * <ul>
-     * <li>manager uptime in seconds
-     * <li>all loaded images details
-     * <li>used memory
-     * </ul>
+     * Get tile of image specified by image request and acquire reference to it. Tile bitmap has to be released with
+     * {@link #releaseBitmap(Bitmap)}.
+     * 
+     * @see #getTile(ImageManagerRequest, int, int, int, OnImageLoadedListener)
      */
-    public static void logImageManagerStatus()
+    static Bitmap acquireTile(final ImageManagerRequest req, final int sample, final int col, final int row,
+            final OnImageLoadedListener listener)
     {
-        final float t = 0.001f * (System.currentTimeMillis() - start);
-
-        Log.d(TAG, "Uptime: " + t + "[s]");
-
-        // count loaded images
-        final int imgn = loaded.size();
-        Log.d(TAG, "Loaded images: " + imgn);
-        if (imgn > 0)
-        {
-            int totalSize = 0;
-            for (final LoadedBitmap limg : loaded.values())
-            {
-                final Bitmap bmp = limg.getBitmap();
-
-                // no bitmap
-                if (bmp == null)
-                {
-                    continue;
-                }
-
-                // get bits per pixel
-                int bpp = 0;
-                if (bmp.getConfig() != null)
-                {
-                    switch (bmp.getConfig())
-                    {
-                    case ALPHA_8:
-                        bpp = 1;
-                        break;
-                    case RGB_565:
-                    case ARGB_4444:
-                        bpp = 2;
-                        break;
-                    case ARGB_8888:
-                    default:
-                        bpp = 4;
-                        break;
-                    }
-                }
-
-                // count total size
-                totalSize += bmp.getWidth() * bmp.getHeight() * bpp;
-            }
-
-            Log.d(TAG, "Estimated loaded images size: " + totalSize / 1024 + "[kB]");
-        }
+        return getTile(req, sample, col, row, listener, true);
+    }
 
-        // count queued images
-        Log.d(TAG, "Queued images: " + loadQueue.size());
+    /**
+     * Release reference to acquired bitmap. Bitmap unloaded meanwhile is released to pool when its last reference is
+     * released.
+     * 
+     * @param bmp
+     *            acquired bitmap.
+     */
+    static void releaseBitmap(final Bitmap bmp)
+    {
+        pool.release(bmp);
     }
 
     /**
-     * Get size of image specified by image request.
+     * Get size of image specified by image request for drawing it by tiles. This doesn't block, when image size is not
+     * known yet, image is opened asynchronously and listener is notified on main thread as soon as it's opened.
      * 
      * @param req
      *            image request.
-     * @return image dimensions.
+     * @param listener
+     *            image loaded listener or NULL.
+     * @return image size or NULL if it's not known yet or image can't be drawn by tiles.
+     * @see #getTile(ImageManagerRequest, int, int, int, OnImageLoadedListener)
      */
-    public static Point getImageSize(final ImageManagerRequest req)
+    public static Point getTiledImageSize(final ImageManagerRequest req, final OnImageLoadedListener listener)
     {
-        final Options opts = new Options();
-        opts.inJustDecodeBounds = true;
-        if (req.filename != null)
+        // no request or tiles not supported
+        if (req == null || TileKey.sourceOf(req) == null
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1)
         {
-            BitmapFactory.decodeFile(req.filename, opts);
+            return null;
         }
-        if (req.resId >= 0)
+
+        final TileKey tile = new TileKey(req, 0, 0, 0);
+        final Point size = decoder.getRegionDecoderSize(tile.source);
+        if (size != null)
         {
-            BitmapFactory.decodeResource(application.getResources(), req.resId, opts);
+            return size;
         }
-        if (req.uri != null)
+
+        // image can't be opened for tiles
+        if (decoder.isUntiled(tile.source))
         {
-            try
-            {
-                final InputStream is = new URL(req.uri.toString()).openStream();
-                BitmapFactory.decodeStream(is, null, opts);
-                is.close();
-            }
-            catch (final Exception e)
-            {
-                // nothing
-            }
+            return null;
         }
-        return new Point(opts.outWidth, opts.outHeight);
+
+        // open image asynchronously
+        queueTileLoad(tile, listener);
+        return null;
     }
 
     /**
-     * Get image specified by image request. This returns image as currently available in manager, which means:
-     * <ul>
-     * <li>not loaded at all: NULL - no image
-     * <li>loaded preview
-     * <li>loaded full
-     * </ul>
-     * If image is not available in cache, image request is posted to asynchronous loading and will be available soon.
-     * All image options are specified in image request.
+     * Check if image specified by image request is being opened for drawing it by tiles. Image size is not known yet,
+     * but will be soon.
      * 
      * @param req
      *            image request.
-     * @return image as currently available in manager (preview/full) or NULL if it's not available at all.
-     * @see pl.polidea.imagemanager.ImageManagerRequest
+     * @return true if image can be drawn by tiles, but its size is not known yet, false otherwise.
+     * @see #getTiledImageSize(ImageManagerRequest, OnImageLoadedListener)
      */
-    public static Bitmap getImage(final ImageManagerRequest req)
+    static boolean isTiledImageOpening(final ImageManagerRequest req)
     {
-        Bitmap bmp = null;
-
-        // look for bitmap in already loaded resources
-        if (isImageLoaded(req))
+        final String source = req != null ? TileKey.sourceOf(req) : null;
+        if (source == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1 || isFailedSource(req)
+                || decoder.isUntiled(source))
         {
-            bmp = getLoadedBitmap(req);
+            return false;
         }
 
-        // bitmap found
-        if (bmp != null)
+        return !decoder.isRegionDecoderOpened(source);
+    }
+
+    /**
+     * Get tile of image specified by image request. Tile at given column and row covers square image area of
+     * {@link #TILE_SIZE} multiplied by sub-sampling pixels, decoded with given sub-sampling. This allows drawing images
+     * too big to be loaded whole, only tiles intersecting visible area at current zoom have to be loaded. Tiles are
+     * cached strongly, up to memory cache size, and loaded asynchronously as images, listener is notified on main
+     * thread as soon as tile is loaded. Only image source and priority are used from image request. Tiles are
+     * supported on Android 2.3.3 and newer.
+     * 
+     * @param req
+     *            image request.
+     * @param sample
+     *            tile sub-sampling, should be power of 2.
+     * @param col
+     *            tile column.
+     * @param row
+     *            tile row.
+     * @param listener
+     *            image loaded listener or NULL.
+     * @return tile as currently available in manager or NULL if it's not loaded yet.
+     * @see #getTiledImageSize(ImageManagerRequest, OnImageLoadedListener)
+     * @see #cancelTiles(ImageManagerRequest, OnImageLoadedListener)
+     */
+    public static Bitmap getTile(final ImageManagerRequest req, final int sample, final int col, final int row,
+            final OnImageLoadedListener listener)
+    {
+        return getTile(req, sample, col, row, listener, false);
+    }
+
+    private static Bitmap getTile(final ImageManagerRequest req, final int sample, final int col, final int row,
+            final OnImageLoadedListener listener, final boolean acquire)
+    {
+        // no request or tiles not supported
+        if (req == null || sample < 1 || col < 0 || row < 0 || TileKey.sourceOf(req) == null
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1)
         {
-            return bmp;
+            return null;
         }
 
-        // load preview image quickly
-        if (req.preview)
+        // look for tile in already loaded tiles
+        final TileKey tile = new TileKey(req, sample, col, row);
+        synchronized (loaded)
         {
-            try
+            final LoadedBitmap limg = loaded.get(tile);
+            final Bitmap bmp = limg != null ? limg.getBitmap() : null;
+            if (bmp != null)
             {
-                bmp = loadImage(req, true);
-                if (bmp == null)
+                // bitmap handed out without reference is never reused
+                if (acquire)
                 {
-                    return null;
+                    pool.acquire(bmp);
                 }
-
-                // save preview image
-                loaded.put(req, new LoadedBitmap(bmp, req.strong));
-            }
-            catch (final OutOfMemoryError err)
-            {
-                // oh noes! we have no memory for image
-                if (logging)
+                else
                 {
-                    Log.e(TAG, "Error while loading preview image " + req + ". Out of memory.");
-                    logImageManagerStatus();
+                    limg.shared = true;
                 }
+                return bmp;
             }
         }
 
-        // add image to loading queue
-        if (!isImageLoading(req))
-        {
-            queueImageLoad(req);
-        }
-
-        return bmp;
+        // add tile to loading queue, outside of cache lock as it may open region decoder
+        queueTileLoad(tile, listener);
+        return null;
     }
 
     static
     {
         // save starting time
         start = System.currentTimeMillis();
-
-        // start 7 loading threads
-        new LoadThread().start();
-        new LoadThread().start();
-        new LoadThread().start();
-        new LoadThread().start();
-        new LoadThread().start();
-        new LoadThread().start();
-        new LoadThread().start();
     }
 }
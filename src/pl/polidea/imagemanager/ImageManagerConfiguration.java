@@ -0,0 +1,151 @@
+package pl.polidea.imagemanager;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+import android.os.Process;
+
+/**
+ * Image manager configuration. Passed to {@link ImageManager#init(android.app.Application, ImageManagerConfiguration)}
+ * to control how images are loaded. All options have reasonable defaults, so only the ones which need changing have to
+ * be set.
+ * 
+ * @see ImageManager#init(android.app.Application, ImageManagerConfiguration)
+ */
+public final class ImageManagerConfiguration
+{
+
+    /**
+     * Number of image loading threads. Loading threads decode images, which is CPU bound, so by default there is one
+     * loading thread for each available processor.
+     */
+    public int loaderThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of image fetching threads. Fetching threads download images from URI before they're passed to loading
+     * threads, so slow network doesn't block decoding local images. By default there are 4 fetching threads.
+     */
+    public int fetcherThreads = 4;
+
+    /**
+     * Image loading and fetching threads priority. This is Linux thread priority as used by
+     * {@link android.os.Process#setThreadPriority(int)}. By default loading threads run with background priority, so
+     * they don't compete with UI thread.
+     */
+    public int loaderThreadPriority = Process.THREAD_PRIORITY_BACKGROUND;
+
+    /**
+     * Time in milliseconds after which idle loading or fetching thread is stopped. Stopped threads are started again
+     * when needed. 0 means that idle threads are never stopped.
+     */
+    public long loaderKeepAliveTime = 30000;
+
+    /**
+     * Custom image loading executor. If set, image manager runs all loading on this executor and ignores loading
+     * threads options. Image manager never shuts down custom executor.
+     */
+    public Executor loaderExecutor = null;
+
+    /**
+     * Custom image fetching executor. If set, image manager runs all fetching on this executor and ignores fetching
+     * threads options. Image manager never shuts down custom executor.
+     */
+    public Executor fetcherExecutor = null;
+
+    /**
+     * Memory cache size in bytes. When loaded images exceed this size, least recently used images are removed from
+     * cache. 0 means that size is derived from application memory class, 1/8 of it is used.
+     */
+    public long memoryCacheSize = 0;
+
+    /**
+     * Bitmap pool size in bytes. Images removed from cache are kept in pool up to this size, so their memory can be
+     * reused when loading images of the same dimensions. 0 means that size is derived from application memory class,
+     * 1/16 of it is used. Negative value disables pool. Bitmaps are reused on Android 3.0 and newer only.
+     */
+    public long bitmapPoolSize = 0;
+
+    /**
+     * Disk cache size in bytes. Images loaded from URI are kept in disk cache up to this size, so they're not
+     * downloaded again. 0 means default size of 10MB. Negative value disables disk cache.
+     */
+    public long diskCacheSize = 0;
+
+    /**
+     * Disk cache directory. By default disk cache is kept in application cache directory.
+     */
+    public File diskCacheDirectory = null;
+
+    /**
+     * Pre-scaled variants disk cache size in bytes. When enabled, sub-sampled or rescaled images from file system or
+     * URI are saved compressed in their final size, so next time they're loaded from small file instead of decoding
+     * original image again. 0 means default size of 10MB. Negative value disables variants cache. By default variants
+     * cache is disabled.
+     */
+    public long variantCacheSize = -1;
+
+    /**
+     * Pre-scaled variants disk cache directory. By default variants cache is kept in application cache directory.
+     */
+    public File variantCacheDirectory = null;
+
+    /**
+     * Use thumbnail embedded in image file EXIF data as preview. Camera pictures usually have one, so preview is read
+     * much faster than by sub-sampling whole image. Images without embedded thumbnail are sub-sampled as usual. By
+     * default embedded thumbnails are used.
+     */
+    public boolean exifThumbnailPreview = true;
+
+    /**
+     * Connect timeout in milliseconds for images loaded from URI. 0 means no timeout. By default connecting times out
+     * after 15 seconds.
+     */
+    public int connectTimeout = 15000;
+
+    /**
+     * Read timeout in milliseconds for images loaded from URI. 0 means no timeout. By default reading times out after
+     * 30 seconds.
+     */
+    public int readTimeout = 30000;
+
+    /**
+     * Maximum number of concurrent connections to one host for images loaded from URI. Further fetches from the same
+     * host are deferred and queued again shortly, so they reuse kept-alive connections and don't occupy fetching
+     * threads. 0 or less means no limit.
+     */
+    public int maxConnectionsPerHost = 2;
+
+    /**
+     * Maximum number of retries of failed URI fetch. Only I/O errors, timeouts, server errors and throttling are
+     * retried, other HTTP errors fail at once.
+     */
+    public int fetchRetries = 2;
+
+    /**
+     * Delay in milliseconds before first retry of failed URI fetch. Delay is doubled before each next retry, up to 30
+     * seconds. Retried fetch is queued again after delay, so fetching threads don't wait meanwhile.
+     */
+    public long fetchRetryDelay = 500;
+
+    /**
+     * Time in milliseconds images which failed to load (missing files, undecodable images, URIs which couldn't be
+     * fetched) are not loaded again. Requests of such images meanwhile return NULL right away. 0 or less means failed
+     * images are loaded again on every request. By default failed images are not loaded again for 1 minute.
+     */
+    public long failedImageTimeout = 60000;
+
+    @Override
+    public String toString()
+    {
+        return "[loaderThreads=" + loaderThreads + ", fetcherThreads=" + fetcherThreads + ", loaderThreadPriority="
+                + loaderThreadPriority + ", loaderKeepAliveTime=" + loaderKeepAliveTime + ", loaderExecutor="
+                + loaderExecutor + ", fetcherExecutor=" + fetcherExecutor + ", memoryCacheSize=" + memoryCacheSize
+                + ", bitmapPoolSize=" + bitmapPoolSize + ", diskCacheSize=" + diskCacheSize + ", diskCacheDirectory="
+                + diskCacheDirectory + ", variantCacheSize=" + variantCacheSize
+                + ", variantCacheDirectory=" + variantCacheDirectory + ", exifThumbnailPreview=" + exifThumbnailPreview
+                + ", connectTimeout=" + connectTimeout + ", readTimeout=" + readTimeout + ", maxConnectionsPerHost="
+                + maxConnectionsPerHost + ", fetchRetries=" + fetchRetries + ", fetchRetryDelay=" + fetchRetryDelay
+                + ", failedImageTimeout=" + failedImageTimeout + "]";
+    }
+
+}
@@ -0,0 +1,399 @@
+package pl.polidea.imagemanager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Image manager metrics. Snapshot of image loading counters since image manager start: memory, disk and network
+ * cache hits, loading queue length and waiting time, network fetching time, decoding times for each image source
+ * type, decoded bytes, evictions and out of memory errors. Counters are read one by one while images are loading, so
+ * they may be slightly inconsistent with each other.
+ * 
+ * @see ImageManager#getMetrics()
+ * @see ImageManager#setOnMetricsListener(ImageManager.OnMetricsListener, long)
+ */
+public final class ImageManagerMetrics
+{
+
+    /**
+     * Images from file system.
+     */
+    public static final int SOURCE_FILE = 0;
+
+    /**
+     * Images from resources.
+     */
+    public static final int SOURCE_RESOURCE = 1;
+
+    /**
+     * Images from URI.
+     */
+    public static final int SOURCE_URI = 2;
+
+    /**
+     * Duration histogram. Bucket 0 counts durations below 1 millisecond, each next bucket counts durations up to twice
+     * longer, last bucket counts all longer durations.
+     */
+    public static final class Histogram
+    {
+        private final long[] counts;
+        private final long totalCount;
+
+        Histogram(final AtomicLongArray buckets)
+        {
+            counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; ++i)
+            {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            totalCount = total;
+        }
+
+        /**
+         * Get number of histogram buckets.
+         * 
+         * @return number of buckets.
+         */
+        public int getBucketCount()
+        {
+            return counts.length;
+        }
+
+        /**
+         * Get number of durations in histogram bucket.
+         * 
+         * @param bucket
+         *            bucket index.
+         * @return number of durations in bucket.
+         */
+        public long getCount(final int bucket)
+        {
+            return counts[bucket];
+        }
+
+        /**
+         * Get histogram bucket upper bound.
+         * 
+         * @param bucket
+         *            bucket index.
+         * @return durations in bucket are shorter than this number of milliseconds, {@link Long#MAX_VALUE} for last
+         *         bucket.
+         */
+        public long getUpperBound(final int bucket)
+        {
+            return bucket < counts.length - 1 ? 1L << bucket : Long.MAX_VALUE;
+        }
+
+        /**
+         * Get number of all durations in histogram.
+         * 
+         * @return number of durations.
+         */
+        public long getTotalCount()
+        {
+            return totalCount;
+        }
+
+        /**
+         * Get approximate duration percentile.
+         * 
+         * @param fraction
+         *            percentile as fraction between 0 and 1 (ex. 0.9 for 90th percentile).
+         * @return upper bound in milliseconds of bucket with given percentile or 0 if histogram is empty.
+         */
+        public long getPercentile(final float fraction)
+        {
+            if (totalCount == 0)
+            {
+                return 0;
+            }
+
+            final long n = Math.max(1, (long) Math.ceil(fraction * totalCount));
+            long count = 0;
+            for (int i = 0; i < counts.length; ++i)
+            {
+                count += counts[i];
+                if (count >= n)
+                {
+                    return getUpperBound(i);
+                }
+            }
+            return getUpperBound(counts.length - 1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[count=" + totalCount + ", p50<" + getPercentile(0.5f) + "[msec], p90<" + getPercentile(0.9f)
+                    + "[msec], p99<" + getPercentile(0.99f) + "[msec]]";
+        }
+    }
+
+    private final long memoryCacheHits;
+    private final long memoryCacheMisses;
+    private final long memoryCacheEvictions;
+    private final long memoryCacheSize;
+    private final long diskCacheHits;
+    private final long diskCacheMisses;
+    private final long variantCacheHits;
+    private final long variantCacheMisses;
+    private final long networkFetches;
+    private final long networkErrors;
+    private final long bytesFetched;
+    private final long decodes;
+    private final long decodeErrors;
+    private final long bytesDecoded;
+    private final long outOfMemoryErrors;
+    private final int fetchQueueLength;
+    private final int loadQueueLength;
+    private final Histogram queueWait;
+    private final Histogram fetchTime;
+    private final Histogram[] decodeTimes = new Histogram[Metrics.SOURCES];
+
+    ImageManagerMetrics(final Metrics metrics, final BitmapCache loaded, final int fetchQueueLength,
+            final int loadQueueLength)
+    {
+        memoryCacheHits = loaded.hitCount();
+        memoryCacheMisses = loaded.missCount();
+        memoryCacheEvictions = loaded.evictionCount();
+        memoryCacheSize = loaded.size();
+        diskCacheHits = metrics.diskCacheHits.get();
+        diskCacheMisses = metrics.diskCacheMisses.get();
+        variantCacheHits = metrics.variantCacheHits.get();
+        variantCacheMisses = metrics.variantCacheMisses.get();
+        networkFetches = metrics.fetches.get();
+        networkErrors = metrics.fetchErrors.get();
+        bytesFetched = metrics.bytesFetched.get();
+        decodes = metrics.decodes.get();
+        decodeErrors = metrics.decodeErrors.get();
+        bytesDecoded = metrics.bytesDecoded.get();
+        outOfMemoryErrors = metrics.outOfMemoryErrors.get();
+        this.fetchQueueLength = fetchQueueLength;
+        this.loadQueueLength = loadQueueLength;
+        queueWait = new Histogram(metrics.queueWait);
+        fetchTime = new Histogram(metrics.fetchTime);
+        for (int i = 0; i < Metrics.SOURCES; ++i)
+        {
+            decodeTimes[i] = new Histogram(metrics.decodeTime[i]);
+        }
+    }
+
+    /**
+     * Get memory cache hits count.
+     * 
+     * @return number of requested images found in memory cache.
+     */
+    public long getMemoryCacheHits()
+    {
+        return memoryCacheHits;
+    }
+
+    /**
+     * Get memory cache misses count.
+     * 
+     * @return number of requested images not found in memory cache.
+     */
+    public long getMemoryCacheMisses()
+    {
+        return memoryCacheMisses;
+    }
+
+    /**
+     * Get memory cache evictions count.
+     * 
+     * @return number of images removed from memory cache to keep it within maximum size.
+     */
+    public long getMemoryCacheEvictions()
+    {
+        return memoryCacheEvictions;
+    }
+
+    /**
+     * Get memory cache size.
+     * 
+     * @return size of all loaded images in bytes.
+     */
+    public long getMemoryCacheSize()
+    {
+        return memoryCacheSize;
+    }
+
+    /**
+     * Get disk cache hits count.
+     * 
+     * @return number of images from URI found in disk cache.
+     */
+    public long getDiskCacheHits()
+    {
+        return diskCacheHits;
+    }
+
+    /**
+     * Get disk cache misses count.
+     * 
+     * @return number of images from URI not found in disk cache.
+     */
+    public long getDiskCacheMisses()
+    {
+        return diskCacheMisses;
+    }
+
+    /**
+     * Get pre-scaled variants cache hits count.
+     * 
+     * @return number of images loaded from pre-scaled variants cache.
+     */
+    public long getVariantCacheHits()
+    {
+        return variantCacheHits;
+    }
+
+    /**
+     * Get pre-scaled variants cache misses count.
+     * 
+     * @return number of images not found in pre-scaled variants cache.
+     */
+    public long getVariantCacheMisses()
+    {
+        return variantCacheMisses;
+    }
+
+    /**
+     * Get network fetches count.
+     * 
+     * @return number of images fetched from URI.
+     */
+    public long getNetworkFetches()
+    {
+        return networkFetches;
+    }
+
+    /**
+     * Get network errors count.
+     * 
+     * @return number of images which couldn't be fetched from URI.
+     */
+    public long getNetworkErrors()
+    {
+        return networkErrors;
+    }
+
+    /**
+     * Get fetched bytes count.
+     * 
+     * @return number of bytes fetched from URI.
+     */
+    public long getBytesFetched()
+    {
+        return bytesFetched;
+    }
+
+    /**
+     * Get decoded images count.
+     * 
+     * @return number of images, previews and tiles decoded.
+     */
+    public long getDecodes()
+    {
+        return decodes;
+    }
+
+    /**
+     * Get decoding errors count.
+     * 
+     * @return number of images, previews and tiles which couldn't be decoded.
+     */
+    public long getDecodeErrors()
+    {
+        return decodeErrors;
+    }
+
+    /**
+     * Get decoded bytes count.
+     * 
+     * @return size in bytes of all decoded bitmaps.
+     */
+    public long getBytesDecoded()
+    {
+        return bytesDecoded;
+    }
+
+    /**
+     * Get out of memory errors count. Memory is trimmed after each out of memory error.
+     * 
+     * @return number of images which couldn't be loaded because of out of memory error.
+     */
+    public long getOutOfMemoryErrors()
+    {
+        return outOfMemoryErrors;
+    }
+
+    /**
+     * Get fetching queue length.
+     * 
+     * @return number of images from URI waiting for fetching.
+     */
+    public int getFetchQueueLength()
+    {
+        return fetchQueueLength;
+    }
+
+    /**
+     * Get loading queue length.
+     * 
+     * @return number of images, previews and tiles waiting for decoding.
+     */
+    public int getLoadQueueLength()
+    {
+        return loadQueueLength;
+    }
+
+    /**
+     * Get queue waiting time histogram.
+     * 
+     * @return histogram of time images waited in fetching and loading queues.
+     */
+    public Histogram getQueueWait()
+    {
+        return queueWait;
+    }
+
+    /**
+     * Get network fetching time histogram. Only images from URI are fetched, images found in disk cache are not.
+     * 
+     * @return histogram of fetching time of images from URI.
+     */
+    public Histogram getFetchTime()
+    {
+        return fetchTime;
+    }
+
+    /**
+     * Get decoding time histogram.
+     * 
+     * @param source
+     *            image source type, one of {@link #SOURCE_FILE}, {@link #SOURCE_RESOURCE}, {@link #SOURCE_URI}.
+     * @return histogram of decoding time of images from source type.
+     */
+    public Histogram getDecodeTime(final int source)
+    {
+        return decodeTimes[source];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[memoryCacheHits=" + memoryCacheHits + ", memoryCacheMisses=" + memoryCacheMisses
+                + ", memoryCacheEvictions=" + memoryCacheEvictions + ", memoryCacheSize=" + memoryCacheSize
+                + ", diskCacheHits=" + diskCacheHits + ", diskCacheMisses=" + diskCacheMisses + ", variantCacheHits="
+                + variantCacheHits + ", variantCacheMisses=" + variantCacheMisses + ", networkFetches="
+                + networkFetches + ", networkErrors=" + networkErrors + ", bytesFetched=" + bytesFetched
+                + ", decodes=" + decodes + ", decodeErrors=" + decodeErrors + ", bytesDecoded=" + bytesDecoded
+                + ", outOfMemoryErrors=" + outOfMemoryErrors + ", fetchQueueLength=" + fetchQueueLength
+                + ", loadQueueLength=" + loadQueueLength + ", queueWait=" + queueWait + ", fetchTime="
+                + fetchTime + ", decodeTime=[file=" + decodeTimes[SOURCE_FILE] + ", resource="
+                + decodeTimes[SOURCE_RESOURCE] + ", uri=" + decodeTimes[SOURCE_URI] + "]]";
+    }
+
+}
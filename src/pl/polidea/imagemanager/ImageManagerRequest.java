@@ -51,6 +51,12 @@ public final class ImageManagerRequest
      */
     public boolean strong = false;
 
+    /**
+     * Loading priority. Requests with higher priority are loaded first. Requests with equal priority are loaded in
+     * reverse order, most recently requested first. Priority is not part of request identity.
+     */
+    public int priority = 0;
+
     /**
      * Create unspecified request.
      */
@@ -92,6 +98,25 @@ public final class ImageManagerRequest
         this.uri = uri;
     }
 
+    /**
+     * Create copy of image request.
+     * 
+     * @param req
+     *            image request to copy.
+     */
+    public ImageManagerRequest(final ImageManagerRequest req)
+    {
+        this.filename = req.filename;
+        this.resId = req.resId;
+        this.uri = req.uri;
+        this.subsample = req.subsample;
+        this.width = req.width;
+        this.height = req.height;
+        this.preview = req.preview;
+        this.strong = req.strong;
+        this.priority = req.priority;
+    }
+
     /*
      * @see java.lang.Object#hashCode()
      */
@@ -180,7 +205,8 @@ public final class ImageManagerRequest
     public String toString()
     {
         return "[filename=" + filename + ", resId=" + resId + ", uri=" + uri + ", subsample=" + subsample + ", width="
-                + width + ", height=" + height + ", preview=" + preview + ", strong=" + strong + "]";
+                + width + ", height=" + height + ", preview=" + preview + ", strong=" + strong
+                + ", priority=" + priority + "]";
     }
 
 }
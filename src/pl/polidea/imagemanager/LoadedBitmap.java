@@ -0,0 +1,73 @@
+package pl.polidea.imagemanager;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import android.graphics.Bitmap;
+
+/**
+ * Loaded bitmap helper class. Keeps loaded bitmap with strong or weak reference, together with its size in bytes.
+ * Weak references are registered in reference queue, so entries of collected bitmaps can be removed from cache.
+ * Bitmaps which are not requested for display anymore are marked as background. Bitmaps handed out without image
+ * handle are marked as shared, they may still be used by whoever got them, so they're never reused nor recycled.
+ * 
+ * @author karooolek
+ */
+final class LoadedBitmap
+{
+    /**
+     * Weak bitmap reference helper class. Knows loaded bitmap it belongs to.
+     */
+    static final class WeakBitmap extends WeakReference<Bitmap>
+    {
+        final LoadedBitmap owner;
+
+        WeakBitmap(final Bitmap bitmap, final ReferenceQueue<Bitmap> queue, final LoadedBitmap owner)
+        {
+            super(bitmap, queue);
+            this.owner = owner;
+        }
+    }
+
+    private final WeakBitmap weakBitmap;
+    private final Bitmap bitmap;
+    final Object key;
+    final String source;
+    final boolean preview;
+    final int size;
+    volatile boolean background;
+    volatile boolean shared;
+
+    LoadedBitmap(final Object key, final Bitmap bitmap, final boolean strong, final boolean preview,
+            final ReferenceQueue<Bitmap> queue)
+    {
+        this.key = key;
+        this.source = key instanceof ImageKey ? TileKey.sourceOf(((ImageKey) key).req) : null;
+        this.bitmap = strong ? bitmap : null;
+        this.weakBitmap = strong ? null : new WeakBitmap(bitmap, queue, this);
+        this.preview = preview;
+        this.size = sizeOf(bitmap);
+    }
+
+    Bitmap getBitmap()
+    {
+        return weakBitmap == null ? bitmap : weakBitmap.get();
+    }
+
+    boolean isStrong()
+    {
+        return weakBitmap == null;
+    }
+
+    /**
+     * Get bitmap size in bytes.
+     * 
+     * @param bmp
+     *            bitmap.
+     * @return bitmap pixels size in bytes or 0 if there is no bitmap.
+     */
+    static int sizeOf(final Bitmap bmp)
+    {
+        return bmp == null ? 0 : bmp.getRowBytes() * bmp.getHeight();
+    }
+}
@@ -10,6 +10,7 @@ import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.util.AttributeSet;
 import android.view.View;
+import pl.polidea.imagemanager.ImageManager.OnImageLoadedListener;
 
 /**
  * Image view using {@link pl.polidea.imagemanager.ImageManager}. This view can be connected to your view hierarchy (no
@@ -24,20 +25,26 @@ public class ManagedImageView extends View
 
     public static final String TAG = ManagedImageView.class.getSimpleName();
 
-    private static final int IMAGE_REFRESH_TIME = 1000;
-
     // image drawing settings
-    private final ImageManagerRequest req = new ImageManagerRequest();
+    final ImageManagerRequest req = new ImageManagerRequest();
+    private ImageKey key;
+    private ImageHandle handle;
     private boolean keepRatio = true;
     private boolean fillWholeView = false;
 
     // drawing variables
-    private final Paint p = new Paint();
+    final Paint p = new Paint();
     private final Matrix m = new Matrix();
 
-    // common managed images view redrawing
-    private static long nextDrawT;
-    private static Context lastRedrawnContext;
+    // redrawing when image is loaded
+    final OnImageLoadedListener listener = new OnImageLoadedListener()
+    {
+        @Override
+        public void onImageLoaded(final ImageManagerRequest loadedReq, final Bitmap bmp)
+        {
+            invalidate();
+        }
+    };
 
     public ManagedImageView(final Context context)
     {
@@ -101,6 +108,10 @@ public class ManagedImageView extends View
             {
                 setKeepStrongCache(attr.getAttributeBooleanValue(i, false));
             }
+            else if ("priority".equals(attrName))
+            {
+                setLoadingPriority(attr.getAttributeIntValue(i, 0));
+            }
             // TODO desired dimensions
         }
     }
@@ -113,10 +124,18 @@ public class ManagedImageView extends View
      */
     public void setImage(final String filename)
     {
+        // same image
+        if (filename != null && filename.equals(req.filename))
+        {
+            return;
+        }
+
+        cancelImage();
         req.filename = filename;
         req.resId = -1;
         req.uri = null;
-        redrawManagedImageViews();
+        key = null;
+        postInvalidate();
     }
 
     /**
@@ -127,10 +146,18 @@ public class ManagedImageView extends View
      */
     public void setImage(final int resId)
     {
+        // same image
+        if (resId >= 0 && resId == req.resId)
+        {
+            return;
+        }
+
+        cancelImage();
         req.resId = resId;
         req.filename = null;
         req.uri = null;
-        redrawManagedImageViews();
+        key = null;
+        postInvalidate();
     }
 
     /**
@@ -141,10 +168,18 @@ public class ManagedImageView extends View
      */
     public void setImage(final Uri uri)
     {
+        // same image
+        if (uri != null && uri.equals(req.uri))
+        {
+            return;
+        }
+
+        cancelImage();
         req.uri = uri;
         req.filename = null;
         req.resId = -1;
-        redrawManagedImageViews();
+        key = null;
+        postInvalidate();
     }
 
     /**
@@ -165,12 +200,15 @@ public class ManagedImageView extends View
      */
     public void setSubsampling(final int subsample)
     {
-        if (subsample < 1)
+        if (subsample < 1 || subsample == req.subsample)
         {
             return;
         }
 
+        cancelImage();
         req.subsample = subsample;
+        key = null;
+        postInvalidate();
     }
 
     /**
@@ -207,13 +245,16 @@ public class ManagedImageView extends View
      */
     public void setDesiredDimensions(final int width, final int height)
     {
-        if (width <= 0 || height <= 0)
+        if (width <= 0 || height <= 0 || (width == req.width && height == req.height))
         {
             return;
         }
 
+        cancelImage();
         req.width = width;
         req.height = height;
+        key = null;
+        postInvalidate();
     }
 
     /**
@@ -328,7 +369,15 @@ public class ManagedImageView extends View
      */
     public void setPreviewEnabled(final boolean preview)
     {
+        if (preview == req.preview)
+        {
+            return;
+        }
+
+        cancelImage();
         req.preview = preview;
+        key = null;
+        postInvalidate();
     }
 
     /**
@@ -351,7 +400,46 @@ public class ManagedImageView extends View
      */
     public void setKeepStrongCache(final boolean strong)
     {
+        if (strong == req.strong)
+        {
+            return;
+        }
+
+        // the same image, kept strongly when requested again
         req.strong = strong;
+        key = null;
+        postInvalidate();
+    }
+
+    /**
+     * Get image loading priority.
+     * 
+     * @return image loading priority. 0 is default value.
+     */
+    public int getLoadingPriority()
+    {
+        return req.priority;
+    }
+
+    /**
+     * Set image loading priority. Images with higher priority are loaded before images with lower priority. Images
+     * with equal priority are loaded most recently requested first. Image being loaded is not cancelled, it's loaded
+     * with new priority. By default priority is 0.
+     * 
+     * @param priority
+     *            image loading priority.
+     */
+    public void setLoadingPriority(final int priority)
+    {
+        if (priority == req.priority)
+        {
+            return;
+        }
+
+        // the same image, pending image is reprioritized when requested again
+        req.priority = priority;
+        key = null;
+        postInvalidate();
     }
 
     /**
@@ -369,7 +457,71 @@ public class ManagedImageView extends View
      */
     public void unload()
     {
-        ImageManager.unloadImage(req);
+        ImageManager.unloadImage(getImageKey());
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+        cancelImage();
+    }
+
+    /**
+     * Cancel loading currently set image, if it's not needed anymore.
+     */
+    void cancelImage()
+    {
+        // no image request
+        if (isInEditMode() || (req.filename == null && req.resId < 0 && req.uri == null))
+        {
+            return;
+        }
+
+        // cancel image as it's requested when drawing
+        ImageManager.cancel(getImageKey(), listener);
+
+        // drawn image not needed anymore
+        if (handle != null)
+        {
+            handle.release();
+            handle = null;
+        }
+    }
+
+    /**
+     * Get key of currently set image. Key is built once for each image settings, so drawing doesn't allocate memory.
+     * 
+     * @return image key.
+     */
+    ImageKey getImageKey()
+    {
+        if (key == null)
+        {
+            // images from uri have no preview
+            key = new ImageKey.Builder(req).setPreview(req.preview && req.uri == null).build();
+        }
+        return key;
+    }
+
+    /**
+     * Get currently set image as available in manager. Drawn image is held with image handle, so it's never recycled
+     * while drawn and is drawn until newer image is available, even if it was removed from cache meanwhile.
+     * 
+     * @return image or NULL if it's not available yet.
+     */
+    Bitmap getImage()
+    {
+        final ImageHandle h = ImageManager.acquireImage(getImageKey(), listener, handle);
+        if (h != null && h != handle)
+        {
+            if (handle != null)
+            {
+                handle.release();
+            }
+            handle = h;
+        }
+        return handle != null ? handle.getBitmap() : null;
     }
 
     @Override
@@ -395,9 +547,6 @@ public class ManagedImageView extends View
             return;
         }
 
-        // redraw sometimes
-        redrawManagedImageViews();
-
         // get and clip drawing size
         final int w = getWidth() - getPaddingLeft() - getPaddingRight();
         final int h = getHeight() - getPaddingTop() - getPaddingBottom();
@@ -409,14 +558,8 @@ public class ManagedImageView extends View
         canvas.clipRect(getPaddingLeft(), getPaddingTop(), getPaddingLeft() + w, getPaddingTop() + h);
 
         // get bitmap from manager
-        final boolean pr = req.preview;
-        if (req.uri != null)
-        {
-            req.preview = false;
-        }
-        final Bitmap bmp = ImageManager.getImage(req);
-        req.preview = pr;
-        if (bmp == null || bmp.isRecycled())
+        final Bitmap bmp = getImage();
+        if (bmp == null)
         {
             return;
         }
@@ -448,22 +591,4 @@ public class ManagedImageView extends View
 
         }
     }
-
-    /**
-     * Redraw visible managed image views. Since view is based on asynchronous it has to refresh it's content every 1
-     * second.
-     */
-    private void redrawManagedImageViews()
-    {
-        final long t = System.currentTimeMillis();
-        final Context context = getContext();
-        if (nextDrawT > t && nextDrawT < t + IMAGE_REFRESH_TIME && context == lastRedrawnContext)
-        {
-            return;
-        }
-        nextDrawT = t + IMAGE_REFRESH_TIME;
-        lastRedrawnContext = getContext();
-        getRootView().postInvalidateDelayed(IMAGE_REFRESH_TIME);
-        postInvalidateDelayed(IMAGE_REFRESH_TIME);
-    }
 }
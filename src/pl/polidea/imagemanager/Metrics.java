@@ -0,0 +1,116 @@
+package pl.polidea.imagemanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.graphics.Bitmap;
+
+/**
+ * Image loading metrics helper class. Counts image loading pipeline events with atomic counters and histograms, so
+ * concurrent loading threads don't block each other while updating them. Histograms count durations in buckets of
+ * power of 2 milliseconds.
+ * 
+ * @see pl.polidea.imagemanager.ImageManagerMetrics
+ */
+final class Metrics
+{
+    static final int SOURCES = 3;
+    static final int BUCKETS = 24;
+
+    final AtomicLong diskCacheHits = new AtomicLong();
+    final AtomicLong diskCacheMisses = new AtomicLong();
+    final AtomicLong variantCacheHits = new AtomicLong();
+    final AtomicLong variantCacheMisses = new AtomicLong();
+    final AtomicLong fetches = new AtomicLong();
+    final AtomicLong fetchErrors = new AtomicLong();
+    final AtomicLong bytesFetched = new AtomicLong();
+    final AtomicLong decodes = new AtomicLong();
+    final AtomicLong decodeErrors = new AtomicLong();
+    final AtomicLong bytesDecoded = new AtomicLong();
+    final AtomicLong outOfMemoryErrors = new AtomicLong();
+    final AtomicLongArray queueWait = new AtomicLongArray(BUCKETS);
+    final AtomicLongArray fetchTime = new AtomicLongArray(BUCKETS);
+    final AtomicLongArray[] decodeTime = new AtomicLongArray[SOURCES];
+
+    Metrics()
+    {
+        for (int i = 0; i < SOURCES; ++i)
+        {
+            decodeTime[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Get image source type of image request.
+     * 
+     * @param req
+     *            image request.
+     * @return one of {@link ImageManagerMetrics} source types.
+     */
+    static int sourceOf(final ImageManagerRequest req)
+    {
+        if (req.filename != null)
+        {
+            return ImageManagerMetrics.SOURCE_FILE;
+        }
+        if (req.resId >= 0)
+        {
+            return ImageManagerMetrics.SOURCE_RESOURCE;
+        }
+        return ImageManagerMetrics.SOURCE_URI;
+    }
+
+    /**
+     * Get histogram bucket of duration. Bucket 0 counts durations below 1 millisecond, each next bucket counts
+     * durations up to twice longer, last bucket counts all longer durations.
+     * 
+     * @param nanos
+     *            duration in nanoseconds.
+     * @return histogram bucket.
+     */
+    static int bucketOf(final long nanos)
+    {
+        final long millis = nanos / 1000000;
+        return millis <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    void recordQueueWait(final long nanos)
+    {
+        queueWait.incrementAndGet(bucketOf(nanos));
+    }
+
+    void recordFetch(final long nanos, final byte[] data)
+    {
+        fetches.incrementAndGet();
+        bytesFetched.addAndGet(data.length);
+        fetchTime.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * Record bitmap decoding. Decoding cancelled meanwhile is not counted as error.
+     * 
+     * @param req
+     *            decoded image request.
+     * @param nanos
+     *            decoding duration in nanoseconds.
+     * @param bmp
+     *            decoded bitmap or NULL if it couldn't be decoded.
+     * @param cancelled
+     *            decoding was cancelled or not.
+     */
+    void recordDecode(final ImageManagerRequest req, final long nanos, final Bitmap bmp, final boolean cancelled)
+    {
+        if (bmp == null)
+        {
+            if (!cancelled)
+            {
+                decodeErrors.incrementAndGet();
+            }
+            return;
+        }
+
+        decodes.incrementAndGet();
+        bytesDecoded.addAndGet((long) bmp.getRowBytes() * bmp.getHeight());
+        decodeTime[sourceOf(req)].incrementAndGet(bucketOf(nanos));
+    }
+}
@@ -0,0 +1,68 @@
+package pl.polidea.imagemanager;
+
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+/**
+ * List scroll listener pausing image loading while list is scrolled. By default loading is paused during fling only,
+ * when images fly past too fast to be seen. Loading is resumed when scrolling stops. Other scroll listener can be
+ * wrapped, as list has only one.
+ * 
+ * @see pl.polidea.imagemanager.ImageManager#pause()
+ * @see pl.polidea.imagemanager.ImageManager#resume()
+ */
+public class PauseOnScrollListener implements OnScrollListener
+{
+    private final boolean pauseOnTouchScroll;
+    private final OnScrollListener listener;
+
+    /**
+     * Create scroll listener pausing image loading during fling.
+     */
+    public PauseOnScrollListener()
+    {
+        this(false, null);
+    }
+
+    /**
+     * Create scroll listener pausing image loading.
+     * 
+     * @param pauseOnTouchScroll
+     *            pause image loading also when list is scrolled by touch or not.
+     * @param listener
+     *            wrapped scroll listener or NULL.
+     */
+    public PauseOnScrollListener(final boolean pauseOnTouchScroll, final OnScrollListener listener)
+    {
+        this.pauseOnTouchScroll = pauseOnTouchScroll;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onScrollStateChanged(final AbsListView view, final int scrollState)
+    {
+        if (scrollState == SCROLL_STATE_FLING || (pauseOnTouchScroll && scrollState == SCROLL_STATE_TOUCH_SCROLL))
+        {
+            ImageManager.pause();
+        }
+        else
+        {
+            ImageManager.resume();
+        }
+
+        if (listener != null)
+        {
+            listener.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount,
+            final int totalItemCount)
+    {
+        if (listener != null)
+        {
+            listener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package pl.polidea.imagemanager;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory.Options;
+import android.util.Log;
+import pl.polidea.imagemanager.ImageManager.OnImageLoadedListener;
+
+/**
+ * Pending image helper class. Shared result of loading image request, its preview or its tile, there is at most
+ * one pending image and one pending preview for each image request and one pending tile for each tile. Images
+ * from URI are first queued for fetching and then for decoding, other images are queued for decoding right away.
+ * Pending image is queued with queue entry, requeuing it replaces its entry. Keeps loading options, so loading can
+ * be cancelled while decoding. Loaded image is saved to cache when done.
+ */
+final class PendingImage extends FutureTask<Bitmap>
+{
+    /**
+     * Image decoding helper class. Decodes image request, its preview or its tile with given options, from fetched
+     * data if available.
+     */
+    private static final class DecodeCall implements Callable<Bitmap>
+    {
+        private final ImageManagerRequest req;
+        private final boolean preview;
+        private final TileKey tile;
+        private final Options opts = new Options();
+        private volatile byte[] data;
+
+        DecodeCall(final ImageManagerRequest req, final boolean preview, final TileKey tile)
+        {
+            this.req = req;
+            this.preview = preview;
+            this.tile = tile;
+        }
+
+        @Override
+        public Bitmap call()
+        {
+            return tile != null ? ImageManager.decoder.loadTile(tile, opts, data) : ImageManager.decoder.loadImage(req,
+                    preview, opts, data);
+        }
+    }
+
+    /**
+     * Queue entry helper class. Orders pending images in fetching and loading queues: pending previews go ahead of
+     * all pending images and prefetched images go after them, then pending images go by priority and then by queuing
+     * order, most recent first. Entry is immutable, so pending image is moved forward by queuing new entry instead of
+     * searching queue, its replaced entry is skipped when polled.
+     */
+    static final class QueueEntry implements Comparable<QueueEntry>
+    {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        final PendingImage pending;
+        final boolean fetching;
+        final boolean prefetch;
+        private final int priority;
+        private final long seq;
+
+        QueueEntry(final PendingImage pending, final boolean fetching)
+        {
+            this.pending = pending;
+            this.fetching = fetching;
+            this.prefetch = pending.prefetch && !pending.requested;
+            this.priority = pending.priority;
+            this.seq = SEQUENCE.incrementAndGet();
+        }
+
+        boolean isMostRecent()
+        {
+            return seq == SEQUENCE.get();
+        }
+
+        boolean isQueued()
+        {
+            return pending.queued.get() == this;
+        }
+
+        @Override
+        public int compareTo(final QueueEntry another)
+        {
+            // previews go first, prefetched images go last
+            if (pending.preview != another.pending.preview)
+            {
+                return pending.preview ? -1 : 1;
+            }
+            if (prefetch != another.prefetch)
+            {
+                return prefetch ? 1 : -1;
+            }
+            if (priority != another.priority)
+            {
+                return priority > another.priority ? -1 : 1;
+            }
+            return seq == another.seq ? 0 : (seq > another.seq ? -1 : 1);
+        }
+    }
+
+    private static final String TAG = PendingImage.class.getSimpleName();
+    private static final long HOST_BUSY_DELAY = 200;
+    private static final long OUT_OF_MEMORY_TIMEOUT = 5000;
+
+    final ImageManagerRequest req;
+    private final Object key;
+    private final DecodeCall decode;
+    private final boolean preview;
+    private final boolean diskOnly;
+    private final boolean prefetch;
+    private volatile boolean requested;
+    private volatile int priority;
+    private final AtomicReference<QueueEntry> queued = new AtomicReference<QueueEntry>();
+    private volatile long queueTime;
+    private final CopyOnWriteArrayList<OnImageLoadedListener> listeners =
+            new CopyOnWriteArrayList<OnImageLoadedListener>();
+    private volatile boolean anonymous;
+    private volatile boolean failed;
+    private volatile boolean fetched;
+    private volatile int fetchAttempt;
+    private volatile boolean prefetchedToDisk;
+
+    PendingImage(final ImageKey image, final boolean preview)
+    {
+        this(new DecodeCall(image.req, preview, null), image, false, false);
+    }
+
+    PendingImage(final ImageKey image, final boolean prefetch, final boolean diskOnly)
+    {
+        this(new DecodeCall(image.req, false, null), image, prefetch, diskOnly);
+    }
+
+    PendingImage(final TileKey tile)
+    {
+        this(new DecodeCall(tile.req, false, tile), tile, false, false);
+    }
+
+    private PendingImage(final DecodeCall decode, final Object key, final boolean prefetch,
+            final boolean diskOnly)
+    {
+        super(decode);
+        this.req = decode.req;
+        this.key = key;
+        this.decode = decode;
+        this.preview = decode.preview;
+        this.prefetch = prefetch;
+        this.diskOnly = diskOnly;
+        this.priority = decode.req.priority;
+    }
+
+    /**
+     * Add image loaded listener. Listener is notified once, when image is loaded. Pending image requested without
+     * listener is marked as anonymous and can't be cancelled by removing listeners.
+     * 
+     * @param listener
+     *            image loaded listener or NULL.
+     */
+    void addListener(final OnImageLoadedListener listener)
+    {
+        if (listener == null)
+        {
+            anonymous = true;
+            return;
+        }
+
+        listeners.addIfAbsent(listener);
+
+        // done meanwhile
+        if (isDone() && !isCancelled())
+        {
+            notifyListeners(ImageManager.getLoadedBitmap(key));
+        }
+    }
+
+    /**
+     * Remove image loaded listener.
+     * 
+     * @param listener
+     *            image loaded listener.
+     * @return true if pending image is not needed anymore, false otherwise.
+     */
+    boolean removeListener(final OnImageLoadedListener listener)
+    {
+        listeners.remove(listener);
+        return !anonymous && listeners.isEmpty();
+    }
+
+    private void notifyListeners(final Bitmap bmp)
+    {
+        for (final OnImageLoadedListener listener : listeners)
+        {
+            // each listener is notified once
+            if (listeners.remove(listener))
+            {
+                ImageManager.notifyImageLoaded(listener, req, bmp);
+            }
+        }
+    }
+
+    /**
+     * Queue pending image for fetching or decoding.
+     */
+    void queue()
+    {
+        // loading paused
+        if (ImageManager.holdIfPaused(this))
+        {
+            return;
+        }
+
+        // images from uri are fetched first, caches are checked by fetching thread
+        queueTime = System.nanoTime();
+        final QueueEntry entry = new QueueEntry(this, ImageManager.isUriImage(req) && !fetched);
+        queued.set(entry);
+        ImageManager.submit(entry);
+    }
+
+    /**
+     * Move pending image to front of its priority in fetching or loading queue. Prefetched image is requested now,
+     * so it's not prefetched anymore. Pending image takes priority of the latest request, so it can be reprioritized
+     * without cancelling. Pending image is not removed from queue, it's queued again with new entry and its previous
+     * entry is skipped.
+     * 
+     * @param priority
+     *            loading priority of request.
+     */
+    void requeue(final int priority)
+    {
+        requested = true;
+        this.priority = priority;
+
+        // not queued or queued most recently already
+        final QueueEntry entry = queued.get();
+        if (entry == null || (entry.isMostRecent() && !entry.prefetch && entry.priority == priority))
+        {
+            return;
+        }
+
+        // polled or requeued meanwhile
+        final QueueEntry newEntry = new QueueEntry(this, entry.fetching);
+        if (queued.compareAndSet(entry, newEntry))
+        {
+            ImageManager.submit(newEntry);
+        }
+    }
+
+    /**
+     * Take pending image out of queue for fetching or decoding.
+     * 
+     * @param entry
+     *            polled queue entry.
+     * @return true if entry is current entry of pending image, false if pending image was requeued or dequeued.
+     */
+    boolean claim(final QueueEntry entry)
+    {
+        return queued.compareAndSet(entry, null);
+    }
+
+    /**
+     * Record time pending image waited in fetching or loading queue.
+     */
+    void recordQueueWait()
+    {
+        ImageManager.metrics.recordQueueWait(System.nanoTime() - queueTime);
+    }
+
+    /**
+     * Remove pending image from fetching or loading queue. Its queue entry is skipped when polled.
+     * 
+     * @return true if pending image was queued, false otherwise.
+     */
+    boolean dequeue()
+    {
+        return queued.getAndSet(null) != null;
+    }
+
+    /**
+     * Fetch image data and queue pending image for decoding. Images with pre-scaled variant cached and tiles with
+     * region decoder opened are queued for decoding without fetching. Fetching from host with all connections in
+     * use and retrying failed fetch are deferred, so fetching thread isn't blocked.
+     */
+    void fetch()
+    {
+        // fetching cancelled or nothing to fetch
+        if (isCancelled() || finishIfPrefetchedToDisk())
+        {
+            return;
+        }
+
+        if (decode.tile != null ? !ImageManager.decoder.isRegionDecoderOpened(decode.tile.source)
+                : !ImageManager.diskCaches.isVariantCached(req))
+        {
+            try
+            {
+                decode.data = ImageManager.diskCaches.fetch(req, this, fetchAttempt);
+            }
+            catch (final HttpFetcher.HostBusyException e)
+            {
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.d(TAG, "Host of image " + req + " busy, fetching deferred");
+                }
+                deferFetch(HOST_BUSY_DELAY);
+                return;
+            }
+            catch (final HttpFetcher.RetryException e)
+            {
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.d(TAG, "Fetching image " + req + " failed, retry " + e.attempt + " deferred");
+                }
+                fetchAttempt = e.attempt;
+                deferFetch(e.delay);
+                return;
+            }
+            catch (final IOException e)
+            {
+                // cancelled or shut down, not failed
+                if (isCancelled() || Thread.currentThread().isInterrupted())
+                {
+                    cancel(false);
+                    return;
+                }
+
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.e(TAG, "Error while fetching image from uri " + req.uri, e);
+                }
+
+                // nothing to decode, image which couldn't be fetched for tiles is drawn whole
+                if (decode.tile != null && decode.tile.sample <= 0)
+                {
+                    ImageManager.decoder.setUntiled(decode.tile.source);
+                }
+                failed = true;
+                set(null);
+                return;
+            }
+        }
+        fetched = true;
+
+        // fetched to disk cache, nothing to decode
+        if (diskOnly && ImageManager.diskCaches.getVariantKey(req) == null)
+        {
+            prefetchedToDisk = true;
+            set(null);
+            return;
+        }
+
+        // cancelled while fetching
+        if (isCancelled())
+        {
+            return;
+        }
+
+        queue();
+    }
+
+    /**
+     * Queue pending image for fetching again after a while, when host has free connections or failed fetch should be
+     * retried.
+     * 
+     * @param delay
+     *            delay in milliseconds.
+     */
+    private void deferFetch(final long delay)
+    {
+        ImageManager.HANDLER.postDelayed(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!isCancelled())
+                {
+                    queue();
+                }
+            }
+        }, delay);
+    }
+
+    @Override
+    public void run()
+    {
+        // images from uri are checked when fetching
+        if (!ImageManager.isUriImage(req) && finishIfPrefetchedToDisk())
+        {
+            return;
+        }
+        super.run();
+    }
+
+    /**
+     * Finish prefetching to disk cache only without fetching nor decoding, if image is on disk already. This is
+     * checked by fetching or loading thread, as it may open disk caches.
+     * 
+     * @return true if pending image was prefetched to disk already, false otherwise.
+     */
+    private boolean finishIfPrefetchedToDisk()
+    {
+        if (!diskOnly || !ImageManager.diskCaches.isOnDisk(req))
+        {
+            return false;
+        }
+
+        prefetchedToDisk = true;
+        set(null);
+        return true;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning)
+    {
+        final boolean cancelled = super.cancel(mayInterruptIfRunning);
+        decode.opts.requestCancelDecode();
+        return cancelled;
+    }
+
+    @Override
+    protected void done()
+    {
+        // loading cancelled
+        if (isCancelled())
+        {
+            removeInFlight();
+            return;
+        }
+
+        Bitmap bmp = null;
+        try
+        {
+            bmp = get();
+
+            // image couldn't be loaded, tiles can't be decoded only when image couldn't be fetched
+            if (bmp == null && decode.tile == null && !preview && !prefetchedToDisk)
+            {
+                failed = true;
+            }
+
+            if (decode.tile != null)
+            {
+                saveTile(bmp);
+            }
+            else if (diskOnly)
+            {
+                // variant saved to disk cache, not needed in memory
+                ImageManager.pool.put(bmp);
+                bmp = null;
+            }
+            else if (preview)
+            {
+                bmp = savePreview(bmp);
+            }
+            else
+            {
+                saveFull(bmp);
+
+                // prefetched image is released first until it's requested
+                if (prefetch && !requested)
+                {
+                    ImageManager.loaded.setBackground(key);
+                }
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            // can't happen, task is done
+            Thread.currentThread().interrupt();
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof OutOfMemoryError)
+            {
+                // oh noes! we have no memory for image
+                ImageManager.metrics.outOfMemoryErrors.incrementAndGet();
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.e(TAG, "Error while loading " + (preview ? "preview" : "full") + " image " + req
+                            + ". Out of memory.");
+                    ImageManager.logImageManagerStatus();
+                }
+
+                ImageManager.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+
+                // don't let redrawing views load image again right away
+                ImageManager.addFailedSource(req, OUT_OF_MEMORY_TIMEOUT);
+            }
+            else
+            {
+                failed = !preview;
+                if (ImageManager.isLoggingEnabled())
+                {
+                    Log.e(TAG, "Error while loading " + (preview ? "preview" : "full") + " image " + req,
+                            e.getCause());
+                }
+            }
+        }
+        finally
+        {
+            removeInFlight();
+        }
+
+        // don't load failed image again for a while
+        if (failed)
+        {
+            ImageManager.addFailedSource(req, ImageManager.config.failedImageTimeout);
+        }
+
+        notifyListeners(bmp);
+    }
+
+    private void removeInFlight()
+    {
+        if (decode.tile != null)
+        {
+            ImageManager.tilesInFlight.remove(decode.tile, this);
+        }
+        else if (diskOnly)
+        {
+            ImageManager.diskPrefetchesInFlight.remove(key, this);
+        }
+        else
+        {
+            ImageManager.getInFlight(preview).remove(key, this);
+        }
+    }
+
+    private void saveTile(final Bitmap bmp)
+    {
+        // tiles are cached strongly, so panning back doesn't decode them again
+        if (bmp != null)
+        {
+            ImageManager.loaded.put(decode.tile, bmp, true, false);
+        }
+    }
+
+    private Bitmap savePreview(final Bitmap bmp)
+    {
+        synchronized (ImageManager.loaded)
+        {
+            // full image loaded meanwhile, preview not needed
+            if (ImageManager.loaded.contains(key))
+            {
+                ImageManager.pool.put(bmp);
+                return ImageManager.getLoadedBitmap(key);
+            }
+
+            // save preview image
+            if (bmp != null)
+            {
+                ImageManager.loaded.put(key, bmp, req.strong, true);
+            }
+            return bmp;
+        }
+    }
+
+    private void saveFull(final Bitmap bmp)
+    {
+        // preview not needed anymore
+        final PendingImage pendingPreview = ImageManager.previewsInFlight.remove(key);
+        if (pendingPreview != null)
+        {
+            pendingPreview.dequeue();
+            pendingPreview.cancel(false);
+        }
+
+        // image couldn't be loaded, preview is still drawn
+        if (bmp == null)
+        {
+            return;
+        }
+
+        synchronized (ImageManager.loaded)
+        {
+            // save bitmap, preview image is pooled only once it's replaced in cache
+            final LoadedBitmap prev = ImageManager.loaded.put(key, bmp, req.strong, false);
+            if (prev != null)
+            {
+                final Bitmap prevbmp = prev.getBitmap();
+                if (prevbmp != null && prevbmp != bmp && !prevbmp.isRecycled())
+                {
+                    ImageManager.pool.put(prev);
+
+                    if (ImageManager.isLoggingEnabled())
+                    {
+                        Log.d(TAG, "Preview image " + req + " unloaded");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package pl.polidea.imagemanager;
+
+/**
+ * Image tile key helper class. Identifies square tile of image source decoded with given sub-sampling. Tile at column
+ * and row covers image area of {@link ImageManager#TILE_SIZE} multiplied by sub-sampling pixels, so it's decoded to
+ * bitmap of at most {@link ImageManager#TILE_SIZE} pixels. Only image source is part of tile identity, other image
+ * request options are ignored. Tile with sub-sampling 0 stands for image source itself.
+ */
+final class TileKey
+{
+    final ImageManagerRequest req;
+    final String source;
+    final int sample;
+    final int col;
+    final int row;
+    private final int hash;
+
+    TileKey(final ImageManagerRequest req, final int sample, final int col, final int row)
+    {
+        this.req = new ImageManagerRequest(req);
+        this.source = sourceOf(req);
+        this.sample = sample;
+        this.col = col;
+        this.row = row;
+
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + source.hashCode();
+        result = prime * result + sample;
+        result = prime * result + col;
+        result = prime * result + row;
+        this.hash = result;
+    }
+
+    /**
+     * Get image source of image request.
+     * 
+     * @param req
+     *            image request.
+     * @return image source identifier or NULL if request has no source.
+     */
+    static String sourceOf(final ImageManagerRequest req)
+    {
+        if (req.filename != null)
+        {
+            return "file " + req.filename;
+        }
+        if (req.resId >= 0)
+        {
+            return "res " + req.resId;
+        }
+        if (req.uri != null)
+        {
+            return "uri " + req.uri;
+        }
+        return null;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof TileKey))
+        {
+            return false;
+        }
+        final TileKey other = (TileKey) obj;
+        return hash == other.hash && sample == other.sample && col == other.col && row == other.row
+                && source.equals(other.source);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[source=" + source + ", sample=" + sample + ", col=" + col + ", row=" + row + "]";
+    }
+}
@@ -0,0 +1,409 @@
+package pl.polidea.imagemanager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Point;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+
+/**
+ * Zoomable image view using {@link pl.polidea.imagemanager.ImageManager}. Image is fitted to view keeping aspect
+ * ratio and can be zoomed with pinch or double tap and panned with scrolling. When zoomed image needs more detail than
+ * loaded image has, only image tiles intersecting visible area are loaded with sub-sampling matching current zoom and
+ * drawn over image. This way huge images can be browsed without loading them whole.
+ * 
+ * @see pl.polidea.imagemanager.ImageManager#getTile(ImageManagerRequest, int, int, int,
+ *      pl.polidea.imagemanager.ImageManager.OnImageLoadedListener)
+ */
+public class ZoomableManagedImageView extends ManagedImageView
+{
+
+    // zooming settings
+    private float maxZoom = 8.0f;
+
+    // zooming state
+    private float zoom = 1.0f;
+    private float panX = 0.0f;
+    private float panY = 0.0f;
+    private Point imageSize;
+    private int tileSample;
+    private ImageKey baseKey;
+    private ImageKey baseKeyOf;
+
+    // tiles drawn in last frame, held until they're not drawn anymore
+    private Map<TileKey, Bitmap> tiles = new HashMap<TileKey, Bitmap>();
+    private Map<TileKey, Bitmap> drawnTiles = new HashMap<TileKey, Bitmap>();
+
+    // drawing variables
+    private final RectF dst = new RectF();
+
+    // gestures
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+
+    public ZoomableManagedImageView(final Context context)
+    {
+        super(context);
+        initGestures(context);
+    }
+
+    public ZoomableManagedImageView(final Context context, final AttributeSet attr)
+    {
+        super(context, attr);
+        initGestures(context);
+    }
+
+    private void initGestures(final Context context)
+    {
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener()
+        {
+            @Override
+            public boolean onScale(final ScaleGestureDetector detector)
+            {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener()
+        {
+            @Override
+            public boolean onDown(final MotionEvent e)
+            {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(final MotionEvent e1, final MotionEvent e2, final float dx, final float dy)
+            {
+                panX -= dx;
+                panY -= dy;
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(final MotionEvent e)
+            {
+                if (zoom > 1.0f)
+                {
+                    resetZoom();
+                }
+                else
+                {
+                    zoomBy(2.0f, e.getX(), e.getY());
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Get maximum zoom.
+     * 
+     * @return maximum zoom relative to image fitted to view.
+     */
+    public float getMaxZoom()
+    {
+        return maxZoom;
+    }
+
+    /**
+     * Set maximum zoom. By default image can be zoomed up to 8 times.
+     * 
+     * @param maxZoom
+     *            maximum zoom relative to image fitted to view. Must be greater or equal 1.
+     */
+    public void setMaxZoom(final float maxZoom)
+    {
+        if (maxZoom < 1.0f)
+        {
+            return;
+        }
+
+        this.maxZoom = maxZoom;
+        if (zoom > maxZoom)
+        {
+            zoom = maxZoom;
+            invalidate();
+        }
+    }
+
+    /**
+     * Get current zoom.
+     * 
+     * @return zoom relative to image fitted to view.
+     */
+    public float getZoom()
+    {
+        return zoom;
+    }
+
+    /**
+     * Zoom image by given factor keeping given view point in place.
+     * 
+     * @param factor
+     *            zoom factor.
+     * @param focusX
+     *            zoom focus X in view coordinates.
+     * @param focusY
+     *            zoom focus Y in view coordinates.
+     */
+    public void zoomBy(final float factor, final float focusX, final float focusY)
+    {
+        final float z = Math.max(1.0f, Math.min(maxZoom, zoom * factor));
+        final float f = z / zoom;
+        final float cx = getPaddingLeft() + 0.5f * (getWidth() - getPaddingLeft() - getPaddingRight());
+        final float cy = getPaddingTop() + 0.5f * (getHeight() - getPaddingTop() - getPaddingBottom());
+        panX = (cx + panX - focusX) * f + focusX - cx;
+        panY = (cy + panY - focusY) * f + focusY - cy;
+        zoom = z;
+        invalidate();
+    }
+
+    /**
+     * Reset zoom, so image is fitted to view.
+     */
+    public void resetZoom()
+    {
+        zoom = 1.0f;
+        panX = 0.0f;
+        panY = 0.0f;
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(final MotionEvent event)
+    {
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    void cancelImage()
+    {
+        super.cancelImage();
+        ImageManager.cancelTiles(req, listener);
+        releaseTiles();
+        imageSize = null;
+        tileSample = 0;
+        baseKey = null;
+        baseKeyOf = null;
+        zoom = 1.0f;
+        panX = 0.0f;
+        panY = 0.0f;
+    }
+
+    /**
+     * Get key of image drawn under tiles. When image size is known, image is loaded sub-sampled as much as possible
+     * while still filling view, so it doesn't take memory of full resolution image. Image with desired dimensions is
+     * loaded as requested.
+     * 
+     * @return image key.
+     */
+    @Override
+    ImageKey getImageKey()
+    {
+        final ImageKey key = super.getImageKey();
+        final int w = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int h = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (imageSize == null || imageSize.x <= 0 || imageSize.y <= 0 || w <= 0 || h <= 0
+                || (req.width > 0 && req.height > 0))
+        {
+            return key;
+        }
+
+        // sub-sample as much as possible while staying above view size
+        final float s = Math.min((float) w / imageSize.x, (float) h / imageSize.y);
+        int sample = req.subsample;
+        while (2 * sample * s <= 1.0f)
+        {
+            sample *= 2;
+        }
+        if (sample == req.subsample)
+        {
+            return key;
+        }
+
+        // view resized, image of previous size not needed anymore
+        if (baseKey != null && baseKey.req.subsample != sample)
+        {
+            ImageManager.cancel(baseKey, listener);
+            baseKey = null;
+        }
+
+        // loading options changed, the same image is requested with them
+        if (baseKey == null || baseKeyOf != key)
+        {
+            baseKey = new ImageKey.Builder(key).setSubsample(sample).build();
+            baseKeyOf = key;
+        }
+        return baseKey;
+    }
+
+    @Override
+    public void draw(final Canvas canvas)
+    {
+        // image size is needed to draw tiles
+        if (imageSize == null && !isInEditMode())
+        {
+            imageSize = ImageManager.getTiledImageSize(req, listener);
+        }
+
+        // image is drawn when its size is known, so it's not loaded at full resolution meanwhile
+        if (imageSize == null && !isInEditMode() && ImageManager.isTiledImageOpening(req))
+        {
+            drawBackground(canvas);
+            return;
+        }
+
+        // draw as normal image view
+        if (imageSize == null || imageSize.x <= 0 || imageSize.y <= 0)
+        {
+            super.draw(canvas);
+            return;
+        }
+
+        drawBackground(canvas);
+
+        // get and clip drawing size
+        final int w = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int h = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (w <= 0 || h <= 0)
+        {
+            releaseTiles();
+            return;
+        }
+        canvas.clipRect(getPaddingLeft(), getPaddingTop(), getPaddingLeft() + w, getPaddingTop() + h);
+
+        // zoomed image scale, image can't be panned out of view
+        final float s = zoom * Math.min((float) w / imageSize.x, (float) h / imageSize.y);
+        final float maxPanX = Math.max(0.0f, 0.5f * (s * imageSize.x - w));
+        final float maxPanY = Math.max(0.0f, 0.5f * (s * imageSize.y - h));
+        panX = Math.max(-maxPanX, Math.min(maxPanX, panX));
+        panY = Math.max(-maxPanY, Math.min(maxPanY, panY));
+        final float left = getPaddingLeft() + 0.5f * (w - s * imageSize.x) + panX;
+        final float top = getPaddingTop() + 0.5f * (h - s * imageSize.y) + panY;
+
+        // draw image under tiles
+        final Bitmap bmp = getImage();
+        if (bmp != null)
+        {
+            dst.set(left, top, left + s * imageSize.x, top + s * imageSize.y);
+            canvas.drawBitmap(bmp, null, dst, p);
+
+            // image is detailed enough
+            if (bmp.getWidth() >= s * imageSize.x)
+            {
+                releaseTiles();
+                return;
+            }
+        }
+
+        // sub-sample tiles as much as possible while keeping detail
+        int sample = 1;
+        while (2 * sample * s <= 1.0f)
+        {
+            sample *= 2;
+        }
+        if (sample != tileSample)
+        {
+            // tiles of previous zoom not needed anymore, drawn ones are released after drawing tiles of new zoom
+            ImageManager.cancelTiles(req, listener);
+            tileSample = sample;
+        }
+
+        // draw tiles intersecting visible area, drawing may be only recorded and rendered later, so drawn tiles are
+        // held until next frame doesn't draw them
+        final float span = ImageManager.TILE_SIZE * sample;
+        final int col0 = (int) (Math.max(0.0f, getPaddingLeft() - left) / (s * span));
+        final int row0 = (int) (Math.max(0.0f, getPaddingTop() - top) / (s * span));
+        final int col1 = (int) ((Math.min(s * imageSize.x, getPaddingLeft() + w - left) - 1.0f) / (s * span));
+        final int row1 = (int) ((Math.min(s * imageSize.y, getPaddingTop() + h - top) - 1.0f) / (s * span));
+        for (int row = row0; row <= row1; ++row)
+        {
+            for (int col = col0; col <= col1; ++col)
+            {
+                final Bitmap tile = acquireTile(sample, col, row);
+                if (tile == null)
+                {
+                    continue;
+                }
+
+                dst.set(left + s * col * span, top + s * row * span,
+                        left + s * Math.min((col + 1) * span, imageSize.x),
+                        top + s * Math.min((row + 1) * span, imageSize.y));
+                canvas.drawBitmap(tile, null, dst, p);
+            }
+        }
+
+        // tiles not drawn anymore are released
+        releaseTiles();
+        final Map<TileKey, Bitmap> t = tiles;
+        tiles = drawnTiles;
+        drawnTiles = t;
+    }
+
+    /**
+     * Get tile as currently available in manager and hold it for drawing. Tile held since last frame is drawn until
+     * newer one is available, even if it was removed from cache meanwhile.
+     * 
+     * @param sample
+     *            tile sub-sampling.
+     * @param col
+     *            tile column.
+     * @param row
+     *            tile row.
+     * @return tile or NULL if it's not available yet.
+     */
+    private Bitmap acquireTile(final int sample, final int col, final int row)
+    {
+        final TileKey key = new TileKey(req, sample, col, row);
+        final Bitmap held = tiles.remove(key);
+        Bitmap tile = ImageManager.acquireTile(req, sample, col, row, listener);
+        if (tile == null)
+        {
+            tile = held;
+        }
+        else if (held != null)
+        {
+            ImageManager.releaseBitmap(held);
+        }
+
+        if (tile != null)
+        {
+            drawnTiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Release tiles held since last frame and not drawn in current one.
+     */
+    private void releaseTiles()
+    {
+        for (final Bitmap tile : tiles.values())
+        {
+            ImageManager.releaseBitmap(tile);
+        }
+        tiles.clear();
+    }
+
+    private void drawBackground(final Canvas canvas)
+    {
+        final Drawable bg = getBackground();
+        if (bg != null)
+        {
+            bg.setBounds(0, 0, getWidth(), getHeight());
+            bg.draw(canvas);
+        }
+    }
+}